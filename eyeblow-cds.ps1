@@ -0,0 +1,30 @@
+# Starts Eyeblow with an application class-data-sharing archive, so the JVM maps the classes it needs
+# from eyeblow.jsa instead of loading and verifying them one by one.
+#
+# If the archive does not exist yet (delete it after rebuilding the app), a training run is done first:
+# the app starts with "cdsdump", warms up, shows camera frames until the frame cost is steady and then
+# exits, and the JVM writes every class loaded along the way to the archive. The app is then started
+# with the archive in "fast" mode, which also warms up the pipeline before showing the camera.
+# Both runs print a startup timing report once the frame cost is steady.
+#
+# Extra arguments are passed on to the app, e.g. .\eyeblow-cds.ps1 eyeblow
+
+$java = "C:\Program Files\Java\jdk-14\bin\java.exe"
+$archive = "eyeblow.jsa"
+$jvmArgs = @(
+    "--module-path", "C:\Program Files\Java\javafx-sdk-11.0.2\lib",
+    "--add-modules", "javafx.controls,javafx.fxml",
+    "--add-modules", "javafx.base,javafx.graphics",
+    "--add-reads", "javafx.base=ALL-UNNAMED",
+    "--add-reads", "javafx.graphics=ALL-UNNAMED",
+    "-Djava.library.path=C:\opencv\opencv\build\java\x64",
+    "-Dfile.encoding=UTF-8",
+    "-classpath", "C:\Users\Eric\IdeaProjects\OpenCameraTest2\out\production\OpenCameraTest2;C:\Program Files\Java\javafx-sdk-14\lib\javafx.base.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.fxml.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.controls.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.graphics.jar;C:\opencv\opencv\build\java\opencv-420.jar"
+)
+
+if (!(Test-Path $archive))
+{
+    & $java @jvmArgs "-XX:ArchiveClassesAtExit=$archive" sample.Main cdsdump @args
+}
+
+& $java @jvmArgs "-XX:SharedArchiveFile=$archive" sample.Main fast @args
@@ -0,0 +1,15 @@
+# Runs the headless soak test, which drives the detection pipeline for hours without a window and exits
+# with status 1 if native memory grows, see sample.SoakTest. No display is needed, since SoakTest does
+# not start JavaFX.
+#
+# Extra arguments are passed on to the test, e.g. .\eyeblow-soak.ps1 soakhours=2 soaksource=clip.raw
+
+$java = "C:\Program Files\Java\jdk-14\bin\java.exe"
+$jvmArgs = @(
+    "-Djava.library.path=C:\opencv\opencv\build\java\x64",
+    "-Dfile.encoding=UTF-8",
+    "-classpath", "C:\Users\Eric\IdeaProjects\OpenCameraTest2\out\production\OpenCameraTest2;C:\Program Files\Java\javafx-sdk-14\lib\javafx.base.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.fxml.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.controls.jar;C:\Program Files\Java\javafx-sdk-14\lib\javafx.graphics.jar;C:\opencv\opencv\build\java\opencv-420.jar"
+)
+
+& $java @jvmArgs sample.SoakTest @args
+exit $LASTEXITCODE
@@ -0,0 +1,58 @@
+package sample;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Reads frames from a camera or, for soak testing, from a video file that is looped when it ends.
+ */
+public class CameraSource implements FrameSource
+{
+    private final VideoCapture capture = new VideoCapture();
+    private final boolean loop;
+
+    /**
+     * Open a camera.
+     * @param cameraIndex Index of the camera to open.
+     */
+    public CameraSource(int cameraIndex)
+    {
+        capture.open(cameraIndex);
+        loop = false;
+    }
+
+    /**
+     * Open a video file, which is played from the start again when it ends.
+     * @param fileName Path of the video file.
+     */
+    public CameraSource(String fileName)
+    {
+        capture.open(fileName);
+        loop = true;
+    }
+
+    @Override
+    public Mat read()
+    {
+        Mat frame = new Mat();
+        if (capture.read(frame))
+            return frame;
+
+        if (loop)
+        {
+            capture.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+            if (capture.read(frame))
+                return frame;
+        }
+
+        frame.release();
+        return null;
+    }
+
+    @Override
+    public void close()
+    {
+        capture.release();
+    }
+}
@@ -0,0 +1,96 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Detects faces, eyes and mouths in this process with the cascades in resources/haarcascades.
+ * Not safe for use by more than one thread at a time.
+ */
+public class CascadeDetector implements FrameDetector
+{
+    private final CascadeClassifier faceCascade;
+    private final CascadeClassifier eyeCascade;
+    private final CascadeClassifier mouthCascade;
+    private final TiledDetector tiledFaceDetector;
+    private final ForkJoinPool tilePool;
+
+    /**
+     * Load the face, eye and mouth classifiers.
+     */
+    public CascadeDetector()
+    {
+        String faceCascadeFile = cascadeFile("haarcascades", "haarcascade_frontalface_alt.xml");
+        faceCascade = new CascadeClassifier();
+        faceCascade.load(faceCascadeFile);
+        tilePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        tiledFaceDetector = new TiledDetector(faceCascadeFile, Main.FACE_SCALE_FACTOR, Main.FACE_MIN_NEIGHBORS,
+                tilePool);
+        eyeCascade = new CascadeClassifier();
+        eyeCascade.load(cascadeFile("haarcascades", "haarcascade_eye.xml"));
+        mouthCascade = new CascadeClassifier();
+        mouthCascade.load(cascadeFile("haarcascades", "haarcascade_mcs_mouth.xml"));
+    }
+
+    @Override
+    public Detections detect(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths)
+    {
+        // do face detection
+        int minFaceSize = Math.round(grayFrame.rows() * Main.FACE_MIN_SIZE_FRACTION);
+        Rect[] faces;
+        if (tiled)
+        {
+            faces = tiledFaceDetector.detect(grayFrame, new Size(minFaceSize, minFaceSize));
+        }
+        else
+        {
+            MatOfRect found = NativeMemory.track("CascadeDetector.faces", new MatOfRect());
+            faceCascade.detectMultiScale(grayFrame, found, Main.FACE_SCALE_FACTOR, Main.FACE_MIN_NEIGHBORS,
+                    Objdetect.CASCADE_SCALE_IMAGE, new Size(minFaceSize,minFaceSize), new Size());
+            faces = found.toArray();
+            NativeMemory.release(found);
+        }
+
+        // do eye detection
+        int minEyeSize = Math.round(grayFrame.rows() * 0.05f);
+        MatOfRect eyes = NativeMemory.track("CascadeDetector.eyes", new MatOfRect());
+        eyeCascade.detectMultiScale(grayFrame, eyes, 1.1, 2,
+                Objdetect.CASCADE_SCALE_IMAGE, new Size(minEyeSize,minEyeSize), new Size());
+
+        // do mouth detection
+        int minMouthSize = Math.round(grayFrame.rows() * 0.2f);
+        MatOfRect mouths = NativeMemory.track("CascadeDetector.mouths", new MatOfRect());
+        if (detectMouths)
+        {
+            mouthCascade.detectMultiScale(grayFrame, mouths, 1.1, 2,
+                    Objdetect.CASCADE_SCALE_IMAGE, new Size(minMouthSize, minMouthSize), new Size());
+        }
+
+        Detections result = new Detections(faces, eyes.toArray(), mouths.toArray(), timestamp);
+        NativeMemory.release(eyes);
+        NativeMemory.release(mouths);
+        return result;
+    }
+
+    /**
+     * Build the path of a cascade file. Done here rather than with Main.makeFilePath so that detection
+     * worker processes and the command line tools, which do not have JavaFX, never load Main.
+     * @param directory Directory under resources, e.g. "haarcascades".
+     * @param name File name of the cascade.
+     * @return The path of the cascade file.
+     */
+    static String cascadeFile(String directory, String name)
+    {
+        return new File(new File("resources", directory), name).getPath();
+    }
+
+    @Override
+    public void close()
+    {
+        tilePool.shutdown();
+    }
+}
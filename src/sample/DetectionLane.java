@@ -0,0 +1,234 @@
+package sample;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs detection on its own thread so that the display never waits for it.
+ *
+ * The display lane submits frames as they arrive. Only the newest submitted frame is kept, so when
+ * detection is slower than the camera the frames in between are skipped rather than queued. Each
+ * result carries the timestamp of the frame it came from, and the display lane asks for the result
+ * to draw on its current frame, either held as it is or extrapolated from the last two results.
+ * Extrapolation only covers frames that were submitted but have no result yet, so when the motion gate
+ * stops submitting frames the rects are held where the last detection put them.
+ */
+public class DetectionLane
+{
+    // results are not extrapolated further ahead than this (ns)
+    private static final long MAX_EXTRAPOLATION = 500_000_000L;
+
+    /**
+     * A frame waiting for detection.
+     */
+    private static class Pending
+    {
+        final Mat grayFrame;
+        final long timestamp;
+        final boolean tiled;
+        final boolean detectMouths;
+
+        Pending(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths)
+        {
+            this.grayFrame = grayFrame;
+            this.timestamp = timestamp;
+            this.tiled = tiled;
+            this.detectMouths = detectMouths;
+        }
+    }
+
+    /**
+     * The last two results, published together so the display lane always sees a consistent pair.
+     */
+    private static class History
+    {
+        final Detections previous;
+        final Detections latest;
+
+        History(Detections previous, Detections latest)
+        {
+            this.previous = previous;
+            this.latest = latest;
+        }
+    }
+
+    private final FrameDetector detector;
+    private final ExecutorService executor;
+    private final AtomicReference<Pending> pending = new AtomicReference<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile History history = new History(Detections.NONE, Detections.NONE);
+
+    // results from frames captured before this are discarded, see reset
+    private volatile long discardBefore = 0;
+
+    // timestamp of the newest frame submitted, results are not extrapolated past it
+    private volatile long lastSubmitted = 0;
+
+    /**
+     * @param detector The detector, which from now on is only used from the lane's thread, apart from
+     *                 poll.
+     */
+    public DetectionLane(FrameDetector detector)
+    {
+        this.detector = detector;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "detection-lane");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Submit a frame for detection, replacing any frame still waiting. The frame is copied.
+     * @param grayFrame The equalised grayscale frame.
+     * @param timestamp System.nanoTime() when the frame was captured.
+     * @param tiled True to use tiled face detection.
+     * @param detectMouths True to also detect mouths.
+     */
+    public void submit(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths)
+    {
+        lastSubmitted = timestamp;
+        Mat copy = NativeMemory.track("DetectionLane.grayFrame", grayFrame.clone());
+        Pending replaced = pending.getAndSet(new Pending(copy, timestamp, tiled, detectMouths));
+        if (replaced != null)
+            NativeMemory.release(replaced.grayFrame);
+
+        if (running.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    /**
+     * Get the detections to draw on a frame.
+     * @param timestamp System.nanoTime() when the frame was captured.
+     * @param extrapolate True to move the rects on by their motion between the last two results, up to
+     *                    the newest submitted frame and by no more than that motion, false to hold the
+     *                    latest result.
+     * @return The detections. Their timestamp is that of the latest result, so the age of what is
+     *         drawn is always timestamp minus that.
+     */
+    public Detections resultFor(long timestamp, boolean extrapolate)
+    {
+        // pick up results a background detector has finished since the last frame was submitted
+        publish(detector.poll());
+
+        History h = history;
+        Detections latest = h.latest;
+        Detections previous = h.previous;
+        if (!extrapolate || previous.timestamp == 0 || latest.timestamp <= previous.timestamp)
+            return latest;
+
+        long interval = latest.timestamp - previous.timestamp;
+        long ahead = Math.min(timestamp, lastSubmitted) - latest.timestamp;
+        ahead = Math.min(Math.min(ahead, interval), MAX_EXTRAPOLATION);
+        if (ahead <= 0)
+            return latest;
+        double factor = (double) ahead / interval;
+        return new Detections(extrapolate(previous.faces, latest.faces, factor),
+                extrapolate(previous.eyes, latest.eyes, factor),
+                extrapolate(previous.mouths, latest.mouths, factor),
+                latest.timestamp);
+    }
+
+    /**
+     * Discard all results so far, including any from frames still being detected.
+     * @param timestamp Results from frames captured before this System.nanoTime() are discarded.
+     */
+    public void reset(long timestamp)
+    {
+        discardBefore = timestamp;
+        history = new History(Detections.NONE, Detections.NONE);
+    }
+
+    /**
+     * Stop the lane thread and release any waiting frame. Does not close the detector.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+        Pending p = pending.getAndSet(null);
+        if (p != null)
+            NativeMemory.release(p.grayFrame);
+    }
+
+    /**
+     * Detect on the newest waiting frame until there are none left.
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            Pending p = pending.getAndSet(null);
+            if (p == null)
+            {
+                running.set(false);
+                // a frame may have arrived after the check but before running was cleared
+                if (pending.get() != null && running.compareAndSet(false, true))
+                    continue;
+                return;
+            }
+
+            Detections detections = detector.detect(p.grayFrame, p.timestamp, p.tiled, p.detectMouths);
+            NativeMemory.release(p.grayFrame);
+            publish(detections);
+        }
+    }
+
+    /**
+     * Make a result the latest, unless it is from before a reset or older than the latest. Results from
+     * a detector with several workers can arrive out of order.
+     * @param detections The result, may be null.
+     */
+    private synchronized void publish(Detections detections)
+    {
+        if (detections != null && detections.timestamp >= discardBefore
+                && detections.timestamp > history.latest.timestamp)
+            history = new History(history.latest, detections);
+    }
+
+    /**
+     * Move each latest rect on by the motion since the overlapping rect in the previous result.
+     * Rects with no overlapping previous rect are held where they are.
+     * @param previous Rects from the previous result.
+     * @param latest Rects from the latest result.
+     * @param factor How far ahead to extrapolate, in multiples of the time between the two results.
+     * @return The extrapolated rects.
+     */
+    private static Rect[] extrapolate(Rect[] previous, Rect[] latest, double factor)
+    {
+        Rect[] result = new Rect[latest.length];
+        for (int i = 0; i < latest.length; i++)
+        {
+            Rect l = latest[i];
+            Rect match = null;
+            double best = 0;
+            for (Rect p : previous)
+            {
+                double overlap = Rects.intersectionOverUnion(l, p);
+                if (overlap > best)
+                {
+                    best = overlap;
+                    match = p;
+                }
+            }
+
+            if (match == null)
+            {
+                result[i] = l;
+            }
+            else
+            {
+                result[i] = new Rect(
+                        (int) Math.round(l.x + (l.x - match.x) * factor),
+                        (int) Math.round(l.y + (l.y - match.y) * factor),
+                        (int) Math.max(1, Math.round(l.width + (l.width - match.width) * factor)),
+                        (int) Math.max(1, Math.round(l.height + (l.height - match.height) * factor)));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,483 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sweeps the detection parameters used in Main.processFrame over a set of annotated frames and reports
+ * precision, recall and ms/frame for every configuration, followed by the Pareto frontier.
+ *
+ * Usage: DetectionSweep annotations.txt [cascades=a.xml,b.xml] [scales=1.05,1.1] [neighbors=1,2,3]
+ *        [minsizes=0.05,0.1] [widths=320,640,0] [iou=0.5] [threads=n] [csv=results.csv]
+ *
+ * Each line of the annotations file is an image path (relative to the annotations file) followed by
+ * zero or more ground truth rectangles as x,y,width,height, separated by whitespace. Lines starting
+ * with # are ignored. A detection width of 0 means detect at the native resolution of the frame.
+ */
+public class DetectionSweep
+{
+    // Load OpenCV native library
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    private static final String[] DEFAULT_CASCADES = {
+            CascadeDetector.cascadeFile("haarcascades", "haarcascade_frontalface_alt.xml"),
+            CascadeDetector.cascadeFile("haarcascades", "haarcascade_frontalface_default.xml"),
+            CascadeDetector.cascadeFile("lbpcascades", "lbpcascade_frontalface_improved.xml") };
+    private static final double[] DEFAULT_SCALES = { 1.05, 1.1, 1.2, 1.3 };
+    private static final int[] DEFAULT_NEIGHBORS = { 1, 2, 3, 4, 5 };
+    private static final double[] DEFAULT_MIN_SIZES = { 0.05, 0.1, 0.15, 0.2 };
+    private static final int[] DEFAULT_WIDTHS = { 320, 480, 640, 0 };
+    private static final double DEFAULT_IOU = 0.5;
+
+    /**
+     * A frame loaded from the annotations file together with its ground truth rectangles.
+     */
+    private static class AnnotatedFrame
+    {
+        final Mat image;
+        final Rect[] truth;
+
+        AnnotatedFrame(Mat image, Rect[] truth)
+        {
+            this.image = image;
+            this.truth = truth;
+        }
+    }
+
+    /**
+     * One point in the parameter space.
+     */
+    private static class Config
+    {
+        final String cascade;
+        final double scaleFactor;
+        final int minNeighbors;
+        final double minSizeFraction;
+        final int width;
+
+        Config(String cascade, double scaleFactor, int minNeighbors, double minSizeFraction, int width)
+        {
+            this.cascade = cascade;
+            this.scaleFactor = scaleFactor;
+            this.minNeighbors = minNeighbors;
+            this.minSizeFraction = minSizeFraction;
+            this.width = width;
+        }
+
+        boolean isCurrent()
+        {
+            return cascade.endsWith("haarcascade_frontalface_alt.xml")
+                    && scaleFactor == Main.FACE_SCALE_FACTOR
+                    && minNeighbors == Main.FACE_MIN_NEIGHBORS
+                    && (float) minSizeFraction == Main.FACE_MIN_SIZE_FRACTION
+                    && width == 0;
+        }
+    }
+
+    /**
+     * Accuracy and speed measured for one configuration.
+     */
+    private static class Result
+    {
+        final Config config;
+        final int truePositives;
+        final int falsePositives;
+        final int falseNegatives;
+        final double msPerFrame;
+
+        Result(Config config, int truePositives, int falsePositives, int falseNegatives, double msPerFrame)
+        {
+            this.config = config;
+            this.truePositives = truePositives;
+            this.falsePositives = falsePositives;
+            this.falseNegatives = falseNegatives;
+            this.msPerFrame = msPerFrame;
+        }
+
+        double precision()
+        {
+            int detected = truePositives + falsePositives;
+            return detected == 0 ? 1.0 : (double) truePositives / detected;
+        }
+
+        double recall()
+        {
+            int expected = truePositives + falseNegatives;
+            return expected == 0 ? 1.0 : (double) truePositives / expected;
+        }
+
+        /**
+         * Check if this result is at least as good as the other in every measure and better in one.
+         * @param other The result to compare against.
+         * @return True if this result dominates the other.
+         */
+        boolean dominates(Result other)
+        {
+            boolean noWorse = precision() >= other.precision() && recall() >= other.recall()
+                    && msPerFrame <= other.msPerFrame;
+            boolean better = precision() > other.precision() || recall() > other.recall()
+                    || msPerFrame < other.msPerFrame;
+            return noWorse && better;
+        }
+    }
+
+    // each worker thread keeps its own classifiers, CascadeClassifier is not safe to share between threads
+    private static final ThreadLocal<Map<String, CascadeClassifier>> cascades =
+            ThreadLocal.withInitial(HashMap::new);
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: DetectionSweep annotations.txt [cascades=a.xml,b.xml] [scales=1.05,1.1]"
+                    + " [neighbors=1,2,3] [minsizes=0.05,0.1] [widths=320,640,0] [iou=0.5] [threads=n]"
+                    + " [csv=results.csv]");
+            return;
+        }
+
+        String[] cascadeFiles = DEFAULT_CASCADES;
+        double[] scales = DEFAULT_SCALES;
+        int[] neighbors = DEFAULT_NEIGHBORS;
+        double[] minSizes = DEFAULT_MIN_SIZES;
+        int[] widths = DEFAULT_WIDTHS;
+        double iou = DEFAULT_IOU;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String csvFile = null;
+
+        for (int i = 1; i < args.length; i++)
+        {
+            String a = args[i];
+            int eq = a.indexOf('=');
+            String value = eq < 0 ? "" : a.substring(eq + 1);
+            switch (eq < 0 ? a : a.substring(0, eq))
+            {
+                case "cascades":
+                    cascadeFiles = value.split(",");
+                    break;
+                case "scales":
+                    scales = parseDoubles(value);
+                    break;
+                case "neighbors":
+                    neighbors = parseInts(value);
+                    break;
+                case "minsizes":
+                    minSizes = parseDoubles(value);
+                    break;
+                case "widths":
+                    widths = parseInts(value);
+                    break;
+                case "iou":
+                    iou = Double.parseDouble(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "csv":
+                    csvFile = value;
+                    break;
+                default:
+                    System.out.println("Unrecognised argument: " + a);
+                    break;
+            }
+        }
+
+        List<AnnotatedFrame> frames = loadAnnotations(new File(args[0]));
+        if (frames.isEmpty())
+        {
+            System.out.println("No frames loaded from " + args[0]);
+            return;
+        }
+
+        List<Config> configs = new ArrayList<>();
+        for (String cascade : cascadeFiles)
+            for (double scale : scales)
+                for (int n : neighbors)
+                    for (double minSize : minSizes)
+                        for (int width : widths)
+                            configs.add(new Config(cascade, scale, n, minSize, width));
+
+        System.out.println("Sweeping " + configs.size() + " configurations over " + frames.size()
+                + " frames on " + threads + " threads");
+
+        // the sweep is parallel across configurations, so keep OpenCV from also spreading each
+        // detection over every core - ms/frame is then the cost of one detection on one core
+        Core.setNumThreads(1);
+
+        final double iouThreshold = iou;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Config config : configs)
+        {
+            futures.add(executor.submit(() -> evaluate(config, frames, iouThreshold)));
+        }
+
+        List<Result> results = new ArrayList<>();
+        try
+        {
+            for (Future<Result> future : futures)
+            {
+                results.add(future.get());
+            }
+        }
+        finally
+        {
+            // also when a configuration fails, so the pool threads do not keep the JVM alive
+            executor.shutdownNow();
+        }
+
+        List<Result> frontier = paretoFrontier(results);
+        frontier.sort((r1, r2) -> Double.compare(r1.msPerFrame, r2.msPerFrame));
+
+        System.out.println();
+        System.out.println("All configurations (* = current Main settings)");
+        printResults(System.out, results);
+        System.out.println();
+        System.out.println("Pareto frontier (precision, recall, ms/frame)");
+        printResults(System.out, frontier);
+
+        if (csvFile != null)
+        {
+            try (PrintStream csv = new PrintStream(csvFile))
+            {
+                csv.println("cascade,scaleFactor,minNeighbors,minSizeFraction,width,tp,fp,fn,precision,recall,msPerFrame,pareto");
+                for (Result r : results)
+                {
+                    csv.println(String.format(Locale.ROOT, "%s,%.3f,%d,%.3f,%d,%d,%d,%d,%.4f,%.4f,%.3f,%b",
+                            r.config.cascade, r.config.scaleFactor, r.config.minNeighbors,
+                            r.config.minSizeFraction, r.config.width, r.truePositives, r.falsePositives,
+                            r.falseNegatives, r.precision(), r.recall(), r.msPerFrame, frontier.contains(r)));
+                }
+            }
+        }
+
+        for (AnnotatedFrame f : frames)
+        {
+            f.image.release();
+        }
+    }
+
+    /**
+     * Run one configuration over all frames, the same way Main.processFrame does face detection.
+     * @param config The configuration to evaluate.
+     * @param frames The annotated frames.
+     * @param iouThreshold Minimum intersection over union for a detection to match a ground truth rect.
+     * @return The measured result.
+     */
+    private static Result evaluate(Config config, List<AnnotatedFrame> frames, double iouThreshold)
+    {
+        CascadeClassifier classifier = cascades.get().computeIfAbsent(config.cascade, f -> {
+            CascadeClassifier c = new CascadeClassifier();
+            if (!c.load(f))
+                throw new IllegalArgumentException("Could not load cascade " + f);
+            return c;
+        });
+
+        // run the first frame once untimed so one-off allocations are not counted
+        detect(classifier, config, frames.get(0).image);
+
+        int tp = 0;
+        int fp = 0;
+        int fn = 0;
+        long totalNanos = 0;
+        for (AnnotatedFrame frame : frames)
+        {
+            long start = System.nanoTime();
+            Rect[] detected = detect(classifier, config, frame.image);
+            totalNanos += System.nanoTime() - start;
+
+            int matched = countMatches(detected, frame.truth, iouThreshold);
+            tp += matched;
+            fp += detected.length - matched;
+            fn += frame.truth.length - matched;
+        }
+
+        return new Result(config, tp, fp, fn, totalNanos / 1e6 / frames.size());
+    }
+
+    /**
+     * Detect objects in a frame with the given configuration.
+     * @param classifier The classifier to use.
+     * @param config The configuration.
+     * @param image The colour source frame.
+     * @return Detected rects in source frame coordinates.
+     */
+    private static Rect[] detect(CascadeClassifier classifier, Config config, Mat image)
+    {
+        double scale = 1.0;
+        Mat detectionImage = image;
+        if (config.width > 0 && config.width != image.width())
+        {
+            scale = (double) image.width() / config.width;
+            detectionImage = new Mat();
+            Imgproc.resize(image, detectionImage, new Size(config.width, Math.round(image.height() / scale)),
+                    0, 0, Imgproc.INTER_AREA);
+        }
+
+        Mat grayFrame = new Mat();
+        Imgproc.cvtColor(detectionImage, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.equalizeHist(grayFrame, grayFrame);
+
+        int minSize = (int) Math.round(grayFrame.rows() * config.minSizeFraction);
+        MatOfRect found = new MatOfRect();
+        classifier.detectMultiScale(grayFrame, found, config.scaleFactor, config.minNeighbors,
+                Objdetect.CASCADE_SCALE_IMAGE, new Size(minSize, minSize), new Size());
+        Rect[] rects = found.toArray();
+
+        found.release();
+        grayFrame.release();
+        if (detectionImage != image)
+            detectionImage.release();
+
+        if (scale != 1.0)
+        {
+            for (Rect r : rects)
+            {
+                r.x = (int) Math.round(r.x * scale);
+                r.y = (int) Math.round(r.y * scale);
+                r.width = (int) Math.round(r.width * scale);
+                r.height = (int) Math.round(r.height * scale);
+            }
+        }
+        return rects;
+    }
+
+    /**
+     * Greedily match detections to ground truth rects, each used at most once.
+     * @param detected The detected rects.
+     * @param truth The ground truth rects.
+     * @param iouThreshold Minimum intersection over union for a match.
+     * @return The number of matched pairs.
+     */
+    private static int countMatches(Rect[] detected, Rect[] truth, double iouThreshold)
+    {
+        boolean[] used = new boolean[truth.length];
+        int matches = 0;
+        for (Rect d : detected)
+        {
+            int best = -1;
+            double bestIou = iouThreshold;
+            for (int i = 0; i < truth.length; i++)
+            {
+                double overlap = Rects.intersectionOverUnion(d, truth[i]);
+                if (!used[i] && overlap >= bestIou)
+                {
+                    best = i;
+                    bestIou = overlap;
+                }
+            }
+            if (best >= 0)
+            {
+                used[best] = true;
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static List<Result> paretoFrontier(List<Result> results)
+    {
+        List<Result> frontier = new ArrayList<>();
+        for (Result candidate : results)
+        {
+            boolean dominated = false;
+            for (Result other : results)
+            {
+                if (other.dominates(candidate))
+                {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated)
+                frontier.add(candidate);
+        }
+        return frontier;
+    }
+
+    private static void printResults(PrintStream out, List<Result> results)
+    {
+        out.println(String.format("  %-40s %6s %4s %6s %6s %9s %7s %9s",
+                "cascade", "scale", "nbrs", "minsz", "width", "precision", "recall", "ms/frame"));
+        for (Result r : results)
+        {
+            out.println(String.format(Locale.ROOT, "%s %-40s %6.3f %4d %6.3f %6s %9.3f %7.3f %9.2f",
+                    r.config.isCurrent() ? "*" : " ", new File(r.config.cascade).getName(),
+                    r.config.scaleFactor, r.config.minNeighbors, r.config.minSizeFraction,
+                    r.config.width == 0 ? "native" : Integer.toString(r.config.width),
+                    r.precision(), r.recall(), r.msPerFrame));
+        }
+    }
+
+    private static List<AnnotatedFrame> loadAnnotations(File annotationsFile) throws IOException
+    {
+        List<AnnotatedFrame> frames = new ArrayList<>();
+        File baseDir = annotationsFile.getAbsoluteFile().getParentFile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(annotationsFile)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+                File imageFile = new File(parts[0]);
+                if (!imageFile.isAbsolute())
+                    imageFile = new File(baseDir, parts[0]);
+
+                Mat image = Imgcodecs.imread(imageFile.getPath());
+                if (image.empty())
+                {
+                    System.out.println("Could not read image " + imageFile);
+                    continue;
+                }
+
+                Rect[] truth = new Rect[parts.length - 1];
+                for (int i = 1; i < parts.length; i++)
+                {
+                    String[] v = parts[i].split(",");
+                    truth[i - 1] = new Rect(Integer.parseInt(v[0]), Integer.parseInt(v[1]),
+                            Integer.parseInt(v[2]), Integer.parseInt(v[3]));
+                }
+                frames.add(new AnnotatedFrame(image, truth));
+            }
+        }
+        return frames;
+    }
+
+    private static double[] parseDoubles(String list)
+    {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Double.parseDouble(parts[i]);
+        return values;
+    }
+
+    private static int[] parseInts(String list)
+    {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i]);
+        return values;
+    }
+}
@@ -0,0 +1,140 @@
+package sample;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Entry point of a detection worker process, started by RemoteDetector.
+ *
+ * Usage: DetectionWorker ringFile slots slotBytes port id
+ *
+ * The worker connects back to the app on the given loopback port and sends its id. It then answers
+ * requests until the app closes the connection:
+ *   ping     byte REQUEST_PING, int seq
+ *   detect   byte REQUEST_DETECT, int seq, int slot, int rows, int cols, int type, boolean tiled,
+ *            boolean detectMouths, long timestamp
+ * Both are answered with the seq followed by the detections, see writeDetections. A ping is answered
+ * with no detections.
+ */
+public class DetectionWorker
+{
+    static final byte REQUEST_DETECT = 1;
+    static final byte REQUEST_PING = 2;
+
+    // Load OpenCV native library
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    public static void main(String[] args) throws IOException
+    {
+        String ringFile = args[0];
+        int slots = Integer.parseInt(args[1]);
+        int slotBytes = Integer.parseInt(args[2]);
+        int port = Integer.parseInt(args[3]);
+        int id = Integer.parseInt(args[4]);
+
+        SharedFrameRing ring = SharedFrameRing.open(ringFile, slots, slotBytes);
+        CascadeDetector detector = new CascadeDetector();
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+        {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(id);
+            out.flush();
+
+            while (true)
+            {
+                byte request;
+                try
+                {
+                    request = in.readByte();
+                }
+                catch (EOFException e)
+                {
+                    // the app has closed the connection
+                    break;
+                }
+
+                int seq = in.readInt();
+                Detections detections = Detections.NONE;
+                if (request == REQUEST_DETECT)
+                {
+                    int slot = in.readInt();
+                    int rows = in.readInt();
+                    int cols = in.readInt();
+                    int type = in.readInt();
+                    boolean tiled = in.readBoolean();
+                    boolean detectMouths = in.readBoolean();
+                    long timestamp = in.readLong();
+
+                    Mat frame = ring.slotMat(slot, rows, cols, type);
+                    detections = detector.detect(frame, timestamp, tiled, detectMouths);
+                    frame.release();
+                }
+
+                out.writeInt(seq);
+                writeDetections(out, detections);
+                out.flush();
+            }
+        }
+        finally
+        {
+            detector.close();
+            ring.close();
+        }
+    }
+
+    /**
+     * Write detections as the timestamp followed by the faces, eyes and mouths, each as a count and
+     * then x, y, width and height of each rect.
+     */
+    static void writeDetections(DataOutputStream out, Detections detections) throws IOException
+    {
+        out.writeLong(detections.timestamp);
+        writeRects(out, detections.faces);
+        writeRects(out, detections.eyes);
+        writeRects(out, detections.mouths);
+    }
+
+    static Detections readDetections(DataInputStream in) throws IOException
+    {
+        long timestamp = in.readLong();
+        Rect[] faces = readRects(in);
+        Rect[] eyes = readRects(in);
+        Rect[] mouths = readRects(in);
+        return new Detections(faces, eyes, mouths, timestamp);
+    }
+
+    private static void writeRects(DataOutputStream out, Rect[] rects) throws IOException
+    {
+        out.writeInt(rects.length);
+        for (Rect r : rects)
+        {
+            out.writeInt(r.x);
+            out.writeInt(r.y);
+            out.writeInt(r.width);
+            out.writeInt(r.height);
+        }
+    }
+
+    private static Rect[] readRects(DataInputStream in) throws IOException
+    {
+        Rect[] rects = new Rect[in.readInt()];
+        for (int i = 0; i < rects.length; i++)
+        {
+            rects[i] = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        }
+        return rects;
+    }
+}
@@ -0,0 +1,26 @@
+package sample;
+
+import org.opencv.core.Rect;
+
+/**
+ * The result of detection on one frame.
+ */
+public class Detections
+{
+    public static final Detections NONE = new Detections(new Rect[0], new Rect[0], new Rect[0], 0);
+
+    final Rect[] faces;
+    final Rect[] eyes;
+    final Rect[] mouths;
+
+    // System.nanoTime() when the frame the detections came from was captured
+    final long timestamp;
+
+    public Detections(Rect[] faces, Rect[] eyes, Rect[] mouths, long timestamp)
+    {
+        this.faces = faces;
+        this.eyes = eyes;
+        this.mouths = mouths;
+        this.timestamp = timestamp;
+    }
+}
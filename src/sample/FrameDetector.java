@@ -0,0 +1,35 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+/**
+ * Runs face, eye and mouth detection on a frame.
+ */
+public interface FrameDetector
+{
+    /**
+     * Detect faces, eyes and optionally mouths.
+     * @param grayFrame The equalised grayscale frame.
+     * @param timestamp System.nanoTime() when the frame was captured.
+     * @param tiled True to use tiled face detection.
+     * @param detectMouths True to also detect mouths.
+     * @return The detections, or null if no result is available at the moment. A detector that runs in
+     *         the background may return the result of an earlier frame, see Detections.timestamp.
+     */
+    Detections detect(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths);
+
+    /**
+     * Collect a result that has arrived since the last call to detect or poll, for detectors that run
+     * in the background. Safe to call from any thread.
+     * @return The detections, or null if there is no new result.
+     */
+    default Detections poll()
+    {
+        return null;
+    }
+
+    /**
+     * Release any resources held by the detector.
+     */
+    void close();
+}
@@ -0,0 +1,20 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+/**
+ * A source of BGR frames for the processing pipeline.
+ */
+public interface FrameSource
+{
+    /**
+     * Read the next frame. The caller owns the returned Mat and should release it.
+     * @return The next frame, or null if no frame is available.
+     */
+    Mat read();
+
+    /**
+     * Release any resources held by the source.
+     */
+    void close();
+}
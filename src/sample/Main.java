@@ -4,6 +4,7 @@ import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -22,12 +23,13 @@ import org.opencv.core.*;
 import org.opencv.core.Point;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.objdetect.Objdetect;
-import org.opencv.videoio.VideoCapture;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Vector;
 
@@ -50,11 +52,59 @@ public class Main extends Application {
     private boolean GRAYSCALE_IMAGE = false;
 
     private boolean DETECT_MOUTHS = false;
+    private boolean TILED_DETECTION = false;
+    private boolean MOTION_GATE = false;
+    private boolean ASYNC_DETECTION = false;
+    private boolean EXTRAPOLATE_DETECTIONS = true;
+    private boolean SHOW_DETECTION_AGE = false;
+    private boolean WARM_UP = false;
+    private boolean EXIT_WHEN_STEADY = false;
 
     private static final Scalar KELLY_MASK_COLOR = new Scalar(0,0,0,255); // black
 
     private static final int TIMER_INTERVAL = 1000;
 
+    // timer interval when detection runs asynchronously, so every camera frame is displayed
+    private static final int DISPLAY_INTERVAL = 33;
+
+    // detections, then frames through the pipeline, run on synthetic frames before the camera output
+    // is shown, enough to pass the C1 compile threshold (about 200 calls) of the per-frame methods
+    private static final int WARMUP_DETECTIONS = 250;
+    private static final int WARMUP_FRAMES = 250;
+    private static final int WARMUP_WIDTH = 640;
+    private static final int WARMUP_HEIGHT = 480;
+
+    // longest wait for detection workers to start, and then to return the warm-up detections (ms)
+    private static final int WARMUP_WORKER_TIMEOUT = 30000;
+
+    // timer rate while the motion gate reports an idle scene, lowering capture and processing rate
+    private static final double IDLE_TIMER_RATE = 0.25;
+
+    // face detection parameters, see DetectionSweep for measuring the effect of changing these
+    static final double FACE_SCALE_FACTOR = 1.1;
+    static final int FACE_MIN_NEIGHBORS = 2;
+    static final float FACE_MIN_SIZE_FRACTION = 0.1f;
+
+    // soak test settings, see SoakTest: memory is sampled every interval, and the test fails if the
+    // lowest sample in the second half of the window is more than the allowed growth above the lowest in
+    // the first half. Process memory outside the JVM's heap and non-heap pools catches leaks inside
+    // OpenCV and in untracked Mats, without failing on normal heap growth, and the unreleased Mat count
+    // catches tracked Mats that were never released, even once they have been garbage collected.
+    private static final int SOAK_SAMPLE_INTERVAL = 60 * 1000;
+    private static final int SOAK_WINDOW_SAMPLES = 30;
+    private static final long SOAK_MAX_GROWTH_BYTES = 16 * 1024 * 1024;
+    private static final long SOAK_MAX_UNRELEASED_GROWTH = 10;
+    private double soakHours = 8;
+    private String soakSourceFile = null;
+
+    // raw frame recording and replay, see RawFrameFile. The capacity is the most frames recorded; the
+    // file only grows as frames are appended
+    private String recordFile = null;
+    private int recordCapacity = 3600;
+    private RawFrameFile recording;
+    private String replayFile = null;
+    private boolean replayRealTime = true;
+
     @FXML
     private ImageView cameraView;
 
@@ -65,16 +115,30 @@ public class Main extends Application {
     private BorderPane borderPane;
 
     // Load OpenCV native library
-    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+    static
+    {
+        StartupTimer.mark("jvm start");
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        StartupTimer.mark("load opencv library");
+    }
 
-    private VideoCapture capture;
+    private FrameSource source;
 
-    CascadeClassifier faceCascade;
-    CascadeClassifier eyeCascade;
-    CascadeClassifier mouthCascade;
+    // detection runs in this process, or in worker processes if detectionWorkers > 0, which implies
+    // async detection
+    FrameDetector detector;
+    private int detectionWorkers = 0;
+    MotionGate motionGate = new MotionGate();
+
+    // results of the last detection, reused while the motion gate skips detection or no worker is available
+    private Detections lastDetections = Detections.NONE;
+
+    // with async detection, detection runs here and the timer only displays
+    private DetectionLane detectionLane;
 
     private Stage primaryStage;
     private Scene primaryScene;
+    private Timeline timeline;
 
     private SirenThread sirenThread;
     private HumThread humThread;
@@ -85,11 +149,13 @@ public class Main extends Application {
     public void start(Stage stage) throws Exception
     {
         primaryStage = stage;
+        StartupTimer.mark("javafx start");
 
         System.out.println("OpenCV version " + Core.VERSION);
 
         handleArguments(arguments);
-        
+        NativeMemory.registerMBean();
+
         FXMLLoader loader = new FXMLLoader();
         loader.setController(this);
         loader.setLocation(getClass().getResource("sample.fxml"));
@@ -117,36 +183,136 @@ public class Main extends Application {
         primaryStage.widthProperty().addListener(stageSizeListener);
         primaryStage.heightProperty().addListener(stageSizeListener);
         resizeCameraView(primaryStage, primaryScene);
+        StartupTimer.mark("load fxml and show stage");
 
 
-        // initialise classifiers
-        faceCascade = new CascadeClassifier();
-        faceCascade.load(makeFilePath("resources", "haarcascades", "haarcascade_frontalface_alt.xml"));
-        eyeCascade = new CascadeClassifier();
-        eyeCascade.load(makeFilePath("resources", "haarcascades", "haarcascade_eye.xml"));
-        mouthCascade = new CascadeClassifier();
-        mouthCascade.load(makeFilePath("resources", "haarcascades", "haarcascade_mcs_mouth.xml"));
+        initDetector();
+        StartupTimer.mark("load classifiers");
 
-        // initialise video capture
-        capture = new VideoCapture();
-        capture.open(CAMERA_INDEX);
+        // initialise video capture, or replay of a raw recording
+        if (replayFile != null)
+            source = new RawReplaySource(replayFile, replayRealTime, false);
+        else
+            source = new CameraSource(CAMERA_INDEX);
+        StartupTimer.mark("open camera");
 
+        sirenThread = new SirenThread();
+        sirenThread.setDaemon(true);
+        humThread = new HumThread();
+        humThread.setDaemon(true);
+
+        // warm up off the FX thread so the window stays responsive, and start the timer after
+        if (WARM_UP)
+        {
+            Thread warmUpThread = new Thread(() ->
+            {
+                warmUp();
+                Platform.runLater(() ->
+                {
+                    StartupTimer.mark("warm-up");
+                    startTimer();
+                });
+            }, "warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
+        }
+        else
+        {
+            startTimer();
+        }
+    }
+
+    /**
+     * Start the timer that reads and shows frames, and the audio threads.
+     */
+    private void startTimer()
+    {
         // initialise and start the timer
-        Timeline timeline = new Timeline(new KeyFrame(Duration.millis(TIMER_INTERVAL), e -> handleTimerEvent()));
+        int interval = ASYNC_DETECTION ? DISPLAY_INTERVAL : TIMER_INTERVAL;
+        timeline = new Timeline(new KeyFrame(Duration.millis(interval), e -> handleTimerEvent()));
         timeline.setCycleCount(Animation.INDEFINITE);
         timeline.play();
 
         // start the audio threads
-
-        sirenThread = new SirenThread();
-        sirenThread.setDaemon(true);
         sirenThread.start();
-
-        humThread = new HumThread();
-        humThread.setDaemon(true);
         humThread.start();
     }
 
+    /**
+     * Run detection on synthetic frames, then run them through processFrame and convertFrameToImage,
+     * before the camera output is shown, so OpenCV has done its one-off initialisation and the per-frame
+     * methods have been compiled by C1 by the first real frame. C2 needs about 10000 calls, which would
+     * take minutes of warm-up, so peak performance is still reached on the camera frames.
+     *
+     * Detection is warmed up by calling the detector directly, since the motion gate and the detection
+     * lane would skip or drop most warm-up frames. Detection workers are waited for first, and each of
+     * their results counts as a detection. Runs on its own thread, before the timer and the audio threads
+     * are started, so nothing else uses the detector or the frame state meanwhile.
+     */
+    private void warmUp()
+    {
+        SyntheticSource synthetic = new SyntheticSource(WARMUP_WIDTH, WARMUP_HEIGHT);
+        try
+        {
+            if (detector instanceof RemoteDetector
+                    && !((RemoteDetector) detector).awaitWorkers(WARMUP_WORKER_TIMEOUT))
+                System.out.println("Detection workers not all started, warming up without them");
+
+            long end = System.currentTimeMillis() + WARMUP_WORKER_TIMEOUT;
+            Mat grayFrame = NativeMemory.track("warmUp.grayFrame", new Mat());
+            for (int detections = 0; detections < WARMUP_DETECTIONS && System.currentTimeMillis() < end; )
+            {
+                Mat frame = NativeMemory.track("warmUp.frame", synthetic.read());
+                Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+                Imgproc.equalizeHist(grayFrame, grayFrame);
+                NativeMemory.release(frame);
+
+                // workers return results later, if at all, so count results rather than calls
+                if (detector.detect(grayFrame, System.nanoTime(), TILED_DETECTION, DETECT_MOUTHS) != null)
+                    detections++;
+                else
+                    Thread.sleep(1);
+            }
+            NativeMemory.release(grayFrame);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        for (int i = 0; i < WARMUP_FRAMES; i++)
+        {
+            Mat frame = NativeMemory.track("warmUp.frame", synthetic.read());
+            processFrame(frame, System.nanoTime());
+            convertFrameToImage(frame);
+            NativeMemory.release(frame);
+        }
+
+        // forget anything detected in, and the motion background of, the synthetic frames
+        sirenThread.stopSound();
+        humThread.stopSound();
+        motionGate.reset();
+        lastDetections = Detections.NONE;
+        if (detectionLane != null)
+            detectionLane.reset(System.nanoTime());
+    }
+
+    /**
+     * Load the classifiers, or start the detection worker processes.
+     * @throws IOException If the worker processes could not be set up.
+     */
+    private void initDetector() throws IOException
+    {
+        if (detectionWorkers > 0)
+            detector = new RemoteDetector(detectionWorkers);
+        else
+            detector = new CascadeDetector();
+
+        if (ASYNC_DETECTION)
+            detectionLane = new DetectionLane(detector);
+    }
+
     private void handleArguments(String[] args)
     {
         for (String a: args)
@@ -189,8 +355,62 @@ public class Main extends Application {
                 case "-g":
                     GRAYSCALE_IMAGE = false;
                     break;
+                case "+d":
+                    MOTION_GATE = true;
+                    break;
+                case "-d":
+                    MOTION_GATE = false;
+                    break;
+                case "+t":
+                    TILED_DETECTION = true;
+                    break;
+                case "-t":
+                    TILED_DETECTION = false;
+                    break;
+                case "replayfast":
+                    replayRealTime = false;
+                    break;
+                case "async":
+                    ASYNC_DETECTION = true;
+                    break;
+                case "hold":
+                    EXTRAPOLATE_DETECTIONS = false;
+                    break;
+                case "fast":
+                    WARM_UP = true;
+                    break;
+                case "cdsdump":
+                    // training run for the class-data-sharing archive, see eyeblow-cds.ps1
+                    WARM_UP = true;
+                    EXIT_WHEN_STEADY = true;
+                    break;
+                case "+l":
+                    SHOW_DETECTION_AGE = true;
+                    break;
+                case "-l":
+                    SHOW_DETECTION_AGE = false;
+                    break;
                 default:
-                    System.out.println("Unrecognised argument: " + a);
+                    if (a.startsWith("soakhours="))
+                        soakHours = Double.parseDouble(a.substring("soakhours=".length()));
+                    else if (a.startsWith("soaksource="))
+                        soakSourceFile = a.substring("soaksource=".length());
+                    else if (a.startsWith("record="))
+                        recordFile = a.substring("record=".length());
+                    else if (a.startsWith("recordframes="))
+                        recordCapacity = Integer.parseInt(a.substring("recordframes=".length()));
+                    else if (a.startsWith("replay="))
+                        replayFile = a.substring("replay=".length());
+                    else if (a.startsWith("workers="))
+                    {
+                        // workers detect in the background, so display at the camera rate and draw
+                        // their results as they arrive
+                        detectionWorkers = Integer.parseInt(a.substring("workers=".length()));
+                        if (detectionWorkers > 0)
+                            ASYNC_DETECTION = true;
+                    }
+                    else
+                        System.out.println("Unrecognised argument: " + a);
                     break;
             }
         }
@@ -201,18 +421,17 @@ public class Main extends Application {
      */
     private void handleTimerEvent()
     {
-        Mat frame = new Mat();
-        if (capture.read(frame))
+        Mat frame = readFrame();
+        long timestamp = System.nanoTime();
+        if (frame != null)
         {
-            if (MIRROR_INPUT)
-            {
-                Mat mirroredFrame = new Mat();
-                Core.flip(frame, mirroredFrame, 1);
-                frame = mirroredFrame;
-            }
-
             // process the frame
-            processFrame(frame);
+            long frameStart = System.nanoTime();
+            processFrame(frame, timestamp);
+
+            // slow down while nothing is happening
+            if (MOTION_GATE)
+                timeline.setRate(motionGate.isIdle() ? IDLE_TIMER_RATE : 1.0);
 
             if (EQUALIZE_INPUT)
             {
@@ -224,6 +443,7 @@ public class Main extends Application {
 
             // convert the frame into a javafx image
             Image image = convertFrameToImage(frame);
+            long frameCost = System.nanoTime() - frameStart;
 
             // crop the image to fit the image view aspect ratio
 
@@ -241,15 +461,84 @@ public class Main extends Application {
 
             Rectangle2D viewRect = new Rectangle2D(0, sourceY, sourceWidth, sourceHeight);
 
+            NativeMemory.release(frame);
+
             // display the image
             if (!FREEZE_IMAGE)
             {
                 cameraView.setImage(image);
                 cameraView.setViewport(viewRect);
             }
+
+            // time-to-first-frame and time-to-steady-frame-cost
+            if (StartupTimer.frameDisplayed(frameCost) && EXIT_WHEN_STEADY)
+                Platform.exit();
+        }
+    }
+
+    /**
+     * Read the next frame from the source, mirrored if required.
+     * @return The frame, tracked by NativeMemory, or null if no frame was available.
+     */
+    private Mat readFrame()
+    {
+        Mat frame = source.read();
+        if (frame == null)
+            return null;
+        NativeMemory.track("readFrame.frame", frame);
+
+        if (recordFile != null)
+            recordFrame(frame);
+
+        if (MIRROR_INPUT)
+        {
+            Mat mirroredFrame = NativeMemory.track("readFrame.mirroredFrame", new Mat());
+            Core.flip(frame, mirroredFrame, 1);
+            NativeMemory.release(frame);
+            frame = mirroredFrame;
+        }
+        return frame;
+    }
+
+    /**
+     * Append a raw frame to the recording, creating the recording file on the first frame.
+     * @param frame The frame as read from the source, before mirroring.
+     */
+    private void recordFrame(Mat frame)
+    {
+        try
+        {
+            if (recording == null)
+            {
+                recording = RawFrameFile.create(recordFile, frame.cols(), frame.rows(), frame.type(), recordCapacity);
+                System.out.println("Recording raw frames to " + recordFile);
+            }
+            if (!recording.append(frame, System.nanoTime()))
+            {
+                System.out.println("Recording stopped after " + recording.getFrameCount() + " frames");
+                recording.close();
+                recording = null;
+                recordFile = null;
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not record to " + recordFile + ": " + e.getMessage());
+            recordFile = null;
         }
     }
 
+    @Override
+    public void stop()
+    {
+        if (recording != null)
+            recording.close();
+        if (detectionLane != null)
+            detectionLane.close();
+        if (detector != null)
+            detector.close();
+    }
+
     /**
      * Handle key pressed events.
      * @param event The key pressed event.
@@ -297,41 +586,52 @@ public class Main extends Application {
             case G:
                 GRAYSCALE_IMAGE = !GRAYSCALE_IMAGE;
                 break;
+            case T:
+                TILED_DETECTION = !TILED_DETECTION;
+                break;
+            case L:
+                SHOW_DETECTION_AGE = !SHOW_DETECTION_AGE;
+                break;
+            case D:
+                MOTION_GATE = !MOTION_GATE;
+                if (!MOTION_GATE && timeline != null)
+                    timeline.setRate(1.0);
+                break;
         }
     }
 
     /**
      * Executes detection and painting results
      * @param frame The OpenCV frame on which detection will be done and results painted.
+     * @param timestamp System.nanoTime() when the frame was captured.
      */
-    private void processFrame(Mat frame)
+    private void processFrame(Mat frame, long timestamp)
     {
         // prepare for detection - do it on an equalised grayscale version of the source image
-        Mat grayFrame = new Mat();
+        Mat grayFrame = NativeMemory.track("processFrame.grayFrame", new Mat());
         Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.equalizeHist(grayFrame, grayFrame);
 
-        // do face detection
-        int minFaceSize = Math.round(grayFrame.rows() * 0.1f);
-        MatOfRect faces = new MatOfRect();
-        faceCascade.detectMultiScale(grayFrame, faces, 1.1, 2,
-                Objdetect.CASCADE_SCALE_IMAGE, new Size(minFaceSize,minFaceSize), new Size());
+        // with the motion gate on, only detect when the scene has changed, otherwise reuse the last result
+        boolean detect = !MOTION_GATE || motionGate.shouldDetect(grayFrame);
 
-        // do eye detection
-        int minEyeSize = Math.round(grayFrame.rows() * 0.05f);
-        MatOfRect eyes = new MatOfRect();
-        eyeCascade.detectMultiScale(grayFrame, eyes, 1.1, 2,
-                Objdetect.CASCADE_SCALE_IMAGE, new Size(minEyeSize,minEyeSize), new Size());
+        Imgproc.equalizeHist(grayFrame, grayFrame);
 
-        // do mouth detection
-        int minMouthSize = Math.round(grayFrame.rows() * 0.2f);
-        MatOfRect mouths = new MatOfRect();
-        if (DETECT_MOUTHS)
+        // do face, eye and mouth detection, in line or on the detection lane
+        if (detect && detectionLane != null)
+        {
+            detectionLane.submit(grayFrame, timestamp, TILED_DETECTION, DETECT_MOUTHS);
+        }
+        else if (detect)
         {
-            mouthCascade.detectMultiScale(grayFrame, mouths, 1.1, 2,
-                    Objdetect.CASCADE_SCALE_IMAGE, new Size(minMouthSize, minMouthSize), new Size());
+            Detections detections = detector.detect(grayFrame, timestamp, TILED_DETECTION, DETECT_MOUTHS);
+            if (detections != null)
+                lastDetections = detections;
         }
 
+        // with async detection, use the newest result available for this frame
+        if (detectionLane != null)
+            lastDetections = detectionLane.resultFor(timestamp, EXTRAPOLATE_DETECTIONS);
+
         // grayscale
         if (GRAYSCALE_IMAGE)
         {
@@ -339,23 +639,27 @@ public class Main extends Application {
         }
 
         // get Rect arrays from detected rectangles
-        Rect[] facesArray = faces.toArray();
-        Rect[] eyesArray = eyes.toArray();
-        Rect[] mouthsArray = mouths.toArray();
+        Rect[] facesArray = lastDetections.faces;
+        Rect[] eyesArray = lastDetections.eyes;
+        Rect[] mouthsArray = lastDetections.mouths;
+
+        NativeMemory.release(grayFrame);
 
         // draw blown up eye
         if (BLOWUP_EYE)
         {
-            Rect er = blowupEyeRect(facesArray, eyesArray);
+            Rect er = clipToFrame(blowupEyeRect(facesArray, eyesArray), frame);
             if (er != null)
             {
                 Mat sourceEyeMat = frame.submat(er);
-                Mat blowupEyeMat = new Mat();
+                Mat blowupEyeMat = NativeMemory.track("processFrame.blowupEyeMat", new Mat());
                 Size blowupSize = new Size();
                 blowupSize.width = frame.width();
                 blowupSize.height = frame.height();
                 Imgproc.resize(sourceEyeMat, blowupEyeMat, blowupSize);
                 blowupEyeMat.copyTo(frame);
+                sourceEyeMat.release();
+                NativeMemory.release(blowupEyeMat);
 
                 // play audio
                 if (BLOWUP_AUDIO)
@@ -403,6 +707,33 @@ public class Main extends Application {
                 Imgproc.rectangle(frame, rect.tl(), rect.br(), new Scalar(0, 0, 255, 255), 2);
             }
         }
+
+        // show how old the drawn detections are
+        if (SHOW_DETECTION_AGE && lastDetections.timestamp != 0)
+        {
+            long age = (timestamp - lastDetections.timestamp) / 1000000;
+            Imgproc.putText(frame, "detections " + age + " ms old", new Point(10, frame.height() - 10),
+                    Imgproc.FONT_HERSHEY_SIMPLEX, 0.6, new Scalar(255, 255, 255, 255), 1);
+        }
+    }
+
+    /**
+     * Clip a rect to the bounds of a frame. Extrapolated detections can extend past the frame.
+     * @param rect The rect, may be null.
+     * @param frame The frame.
+     * @return The clipped rect, or null if rect was null or lies outside the frame.
+     */
+    private static Rect clipToFrame(Rect rect, Mat frame)
+    {
+        if (rect == null)
+            return null;
+        int left = Math.max(rect.x, 0);
+        int top = Math.max(rect.y, 0);
+        int right = Math.min(rect.x + rect.width, frame.width());
+        int bottom = Math.min(rect.y + rect.height, frame.height());
+        if (right <= left || bottom <= top)
+            return null;
+        return new Rect(left, top, right - left, bottom - top);
     }
 
     /**
@@ -452,9 +783,21 @@ public class Main extends Application {
      */
     private Image convertFrameToImage(Mat frame)
     {
-        MatOfByte buffer = new MatOfByte();
+        return new Image(new ByteArrayInputStream(encodeFrame(frame)));
+    }
+
+    /**
+     * Encode an OpenCV frame as PNG.
+     * @param frame The frame to encode.
+     * @return The encoded bytes.
+     */
+    private byte[] encodeFrame(Mat frame)
+    {
+        MatOfByte buffer = NativeMemory.track("convertFrameToImage.buffer", new MatOfByte());
         Imgcodecs.imencode(".png", frame, buffer);
-        return new Image(new ByteArrayInputStream(buffer.toArray()));
+        byte[] bytes = buffer.toArray();
+        NativeMemory.release(buffer);
+        return bytes;
     }
 
     /**
@@ -598,6 +941,173 @@ public class Main extends Application {
         launch(args);
     }
 
+    /**
+     * Run the soak test, see SoakTest. Must not be called from a JavaFX application, since it runs the
+     * pipeline on the calling thread without the toolkit.
+     * @param args Arguments passed to the soak test.
+     * @return The process exit code, 0 if the soak test passed.
+     */
+    static int soak(String[] args)
+    {
+        return new Main().runSoak(args);
+    }
+
+    /**
+     * Run the pipeline headless, without JavaFX, against a synthetic or file source and check that
+     * neither the native memory of the process nor the count of unreleased pipeline Mats grows.
+     * @param args Arguments passed to the soak test.
+     * @return The process exit code, 0 if the soak test passed.
+     */
+    private int runSoak(String[] args)
+    {
+        handleArguments(args);
+        BLOWUP_AUDIO = false;
+        KELLY_HUM = false;
+        NativeMemory.registerMBean();
+        try
+        {
+            initDetector();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not start detection workers: " + e.getMessage());
+            return 2;
+        }
+
+        // the audio threads are created but not started so the pipeline can signal them silently
+        sirenThread = new SirenThread();
+        humThread = new HumThread();
+
+        if (soakSourceFile == null)
+        {
+            source = new SyntheticSource(640, 480);
+        }
+        else if (soakSourceFile.endsWith(".raw"))
+        {
+            try
+            {
+                source = new RawReplaySource(soakSourceFile, false, true);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Could not open " + soakSourceFile + ": " + e.getMessage());
+                return 2;
+            }
+        }
+        else
+        {
+            source = new CameraSource(soakSourceFile);
+        }
+
+        System.out.println("Soak test for " + soakHours + " hours against "
+                + (soakSourceFile != null ? soakSourceFile : "synthetic frames"));
+
+        NativeMemory nativeMemory = NativeMemory.getInstance();
+        Deque<Long> processSamples = new ArrayDeque<>();
+        Deque<Long> unreleasedSamples = new ArrayDeque<>();
+        long startTime = System.currentTimeMillis();
+        long endTime = startTime + Math.round(soakHours * 3600 * 1000);
+        long lastSample = startTime;
+        long frames = 0;
+        long framesAtLastSample = 0;
+        int result = 0;
+
+        while (System.currentTimeMillis() < endTime)
+        {
+            Mat frame = readFrame();
+            long timestamp = System.nanoTime();
+            if (frame == null)
+            {
+                System.out.println("Soak source returned no frame");
+                result = 2;
+                break;
+            }
+            processFrame(frame, timestamp);
+            encodeFrame(frame);
+            NativeMemory.release(frame);
+            frames++;
+
+            long now = System.currentTimeMillis();
+            if (now - lastSample >= SOAK_SAMPLE_INTERVAL)
+            {
+                long liveBytes = nativeMemory.getLiveBytes();
+                long processBytes = nativeMemory.getProcessBytes();
+                long processNativeBytes = nativeMemory.getProcessNativeBytes();
+                long unreleasedMats = nativeMemory.getUnreleasedMats();
+                long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+                double fps = (frames - framesAtLastSample) * 1000.0 / (now - lastSample);
+                System.out.println(String.format("soak %6.2fh frames=%d fps=%.1f process=%d processnative=%d native=%d mats=%d unreleased=%d heap=%d sites=%s",
+                        (now - startTime) / 3600000.0, frames, fps, processBytes, processNativeBytes, liveBytes, nativeMemory.getLiveMats(),
+                        unreleasedMats, heapUsed, nativeMemory.getLiveBytesBySite()));
+                framesAtLastSample = frames;
+                lastSample = now;
+
+                addSoakSample(processSamples, processNativeBytes);
+                addSoakSample(unreleasedSamples, unreleasedMats);
+                if (processSamples.size() == SOAK_WINDOW_SAMPLES && processNativeBytes >= 0
+                        && windowGrowth(processSamples) > SOAK_MAX_GROWTH_BYTES)
+                {
+                    System.out.println("Soak test FAILED: process memory outside the Java heap grew by " + windowGrowth(processSamples)
+                            + " bytes over " + SOAK_WINDOW_SAMPLES + " samples");
+                    result = 1;
+                    break;
+                }
+                if (unreleasedSamples.size() == SOAK_WINDOW_SAMPLES
+                        && windowGrowth(unreleasedSamples) > SOAK_MAX_UNRELEASED_GROWTH)
+                {
+                    System.out.println("Soak test FAILED: " + windowGrowth(unreleasedSamples)
+                            + " more Mats left unreleased over " + SOAK_WINDOW_SAMPLES + " samples, by site "
+                            + nativeMemory.getUnreleasedMatsBySite());
+                    result = 1;
+                    break;
+                }
+            }
+        }
+
+        source.close();
+        if (detectionLane != null)
+            detectionLane.close();
+        detector.close();
+        if (recording != null)
+            recording.close();
+        if (result == 0)
+            System.out.println("Soak test passed after " + frames + " frames");
+        return result;
+    }
+
+    /**
+     * Add a sample to a soak window, dropping the oldest once the window is full.
+     * @param samples The samples, oldest first.
+     * @param sample The new sample.
+     */
+    private static void addSoakSample(Deque<Long> samples, long sample)
+    {
+        samples.addLast(sample);
+        if (samples.size() > SOAK_WINDOW_SAMPLES)
+            samples.removeFirst();
+    }
+
+    /**
+     * Growth across a window of samples, comparing the lowest sample of the second half against the
+     * lowest of the first half so that transient peaks are ignored.
+     * @param samples The samples, oldest first.
+     * @return The growth.
+     */
+    private static long windowGrowth(Deque<Long> samples)
+    {
+        long firstHalfMin = Long.MAX_VALUE;
+        long secondHalfMin = Long.MAX_VALUE;
+        int i = 0;
+        for (long sample : samples)
+        {
+            if (i++ < samples.size() / 2)
+                firstHalfMin = Math.min(firstHalfMin, sample);
+            else
+                secondHalfMin = Math.min(secondHalfMin, sample);
+        }
+        return secondHalfMin - firstHalfMin;
+    }
+
     /**
      * Resizes the CameraView to fill the stage (window)
      * @param stage The stage (window).
@@ -615,7 +1125,7 @@ public class Main extends Application {
      * @param names Elements of the file path.
      * @return
      */
-    private String makeFilePath(String ...names)
+    static String makeFilePath(String ...names)
     {
         String result = "";
         if (names.length > 0)
@@ -0,0 +1,99 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides whether a frame needs full detection by comparing a tiny downscaled copy of it against a
+ * running average background. Detection is needed when enough of the image has changed, or when the
+ * last detection is older than the maximum age.
+ */
+public class MotionGate
+{
+    private static final Size GATE_SIZE = new Size(32, 24);
+
+    // time constant of the running background (ms): each frame's weight depends on the time since the
+    // previous one, so the background adapts at the same speed whatever the frame rate
+    private static final double BACKGROUND_TIME_CONSTANT = 20000;
+
+    // a pixel has changed if it differs from the background by more than this many gray levels
+    private static final double PIXEL_THRESHOLD = 20;
+
+    // the scene has changed if more than this fraction of pixels have changed
+    private static final double CHANGED_FRACTION = 0.01;
+
+    // run detection at least this often even when nothing has changed (ms). This must be many times
+    // the frame interval, including the slowed interval while idle, or the gate saves little.
+    private static final long MAX_DETECTION_AGE = 30000;
+
+    // the scene is idle once nothing has changed for this long (ms)
+    private static final long IDLE_AFTER = 10000;
+
+    private final Mat small = NativeMemory.track("MotionGate.small", new Mat());
+    private final Mat smallFloat = NativeMemory.track("MotionGate.smallFloat", new Mat());
+    private final Mat background = NativeMemory.track("MotionGate.background", new Mat());
+    private final Mat diff = NativeMemory.track("MotionGate.diff", new Mat());
+
+    // System.nanoTime() of the last detection, motion and frame, 0 if none yet
+    private long lastDetection = 0;
+    private long lastMotion = 0;
+    private long lastFrame = 0;
+
+    /**
+     * Update the background with a frame and decide whether it needs detection.
+     * @param grayFrame The grayscale frame, before equalisation.
+     * @return True if detection should run on this frame.
+     */
+    public boolean shouldDetect(Mat grayFrame)
+    {
+        long now = System.nanoTime();
+
+        Imgproc.resize(grayFrame, small, GATE_SIZE, 0, 0, Imgproc.INTER_AREA);
+        small.convertTo(smallFloat, CvType.CV_32F);
+
+        boolean changed;
+        if (background.empty())
+        {
+            smallFloat.copyTo(background);
+            changed = true;
+        }
+        else
+        {
+            Core.absdiff(smallFloat, background, diff);
+            Imgproc.threshold(diff, diff, PIXEL_THRESHOLD, 1, Imgproc.THRESH_BINARY);
+            changed = Core.countNonZero(diff) > CHANGED_FRACTION * GATE_SIZE.area();
+            double elapsed = (now - lastFrame) / 1e6;
+            Imgproc.accumulateWeighted(smallFloat, background, 1 - Math.exp(-elapsed / BACKGROUND_TIME_CONSTANT));
+        }
+        lastFrame = now;
+
+        if (changed)
+            lastMotion = now;
+
+        if (changed || now - lastDetection >= MAX_DETECTION_AGE * 1000000)
+        {
+            lastDetection = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget the background and timing, as if no frame had been seen.
+     */
+    public void reset()
+    {
+        background.release();
+        lastDetection = 0;
+        lastMotion = 0;
+        lastFrame = 0;
+    }
+
+    /**
+     * @return True if the scene has not changed for a while and the frame rate can be lowered.
+     */
+    public boolean isIdle()
+    {
+        return lastMotion == 0 || System.nanoTime() - lastMotion >= IDLE_AFTER * 1000000;
+    }
+}
@@ -0,0 +1,226 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the native buffers of pipeline-owned Mats, which the JVM heap metrics cannot see.
+ *
+ * Mats are registered with an allocation site when they are created and removed when they are
+ * released through this class. Sizes are read when the totals are sampled, so a Mat that is filled
+ * after being tracked is still counted correctly.
+ *
+ * Each site also keeps a running count of allocations minus releases. A Mat that is dropped without
+ * being released stays in that count even after it is garbage collected, so a leak shows up as a
+ * count that keeps growing at its site. Memory leaked inside OpenCV or by untracked Mats is only
+ * visible in the process memory, which is sampled as well.
+ */
+public class NativeMemory implements NativeMemoryMXBean
+{
+    public static final String OBJECT_NAME = "sample:type=NativeMemory";
+
+    private static final NativeMemory instance = new NativeMemory();
+
+    /**
+     * A tracked Mat and the site that allocated it.
+     */
+    private static class Tracked
+    {
+        final String site;
+        final WeakReference<Mat> mat;
+
+        Tracked(String site, Mat mat)
+        {
+            this.site = site;
+            this.mat = new WeakReference<>(mat);
+        }
+    }
+
+    // process memory is read from here where the OS provides it
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    // keyed by the native object address, which is unique while the Mat is alive
+    private final Map<Long, Tracked> live = new ConcurrentHashMap<>();
+
+    // allocations minus releases, keyed by site
+    private final Map<String, AtomicLong> unreleased = new ConcurrentHashMap<>();
+
+    private volatile long peakBytes = 0;
+
+    private NativeMemory()
+    {
+    }
+
+    public static NativeMemory getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Register the tracker on the platform MBean server. Does nothing if already registered.
+     */
+    public static void registerMBean()
+    {
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, name);
+            }
+        }
+        catch (JMException e)
+        {
+            System.out.println("Could not register native memory MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start tracking a Mat.
+     * @param site Name of the allocation site, e.g. "processFrame.grayFrame".
+     * @param mat The Mat to track.
+     * @return The same Mat, so allocation and tracking can be done in one expression.
+     */
+    public static <T extends Mat> T track(String site, T mat)
+    {
+        instance.unreleased.computeIfAbsent(site, k -> new AtomicLong()).incrementAndGet();
+        instance.live.put(mat.nativeObj, new Tracked(site, mat));
+        return mat;
+    }
+
+    /**
+     * Stop tracking a Mat and release its native buffer.
+     * @param mat The Mat to release, may be null.
+     */
+    public static void release(Mat mat)
+    {
+        if (mat != null)
+        {
+            Tracked t = instance.live.remove(mat.nativeObj);
+            if (t != null)
+                instance.unreleased.get(t.site).decrementAndGet();
+            mat.release();
+        }
+    }
+
+    @Override
+    public long getLiveBytes()
+    {
+        long total = 0;
+        for (long bytes : getLiveBytesBySite().values())
+        {
+            total += bytes;
+        }
+        return total;
+    }
+
+    @Override
+    public int getLiveMats()
+    {
+        return live.size();
+    }
+
+    @Override
+    public long getPeakBytes()
+    {
+        return peakBytes;
+    }
+
+    @Override
+    public Map<String, Long> getLiveBytesBySite()
+    {
+        Map<String, Long> bySite = new TreeMap<>();
+        long total = 0;
+        Iterator<Tracked> it = live.values().iterator();
+        while (it.hasNext())
+        {
+            Tracked t = it.next();
+            Mat mat = t.mat.get();
+            if (mat == null)
+            {
+                // collected without being released, it stays in the unreleased count of its site
+                it.remove();
+                continue;
+            }
+            long bytes = mat.total() * mat.elemSize();
+            bySite.merge(t.site, bytes, Long::sum);
+            total += bytes;
+        }
+        if (total > peakBytes)
+            peakBytes = total;
+        return bySite;
+    }
+
+    @Override
+    public long getUnreleasedMats()
+    {
+        long total = 0;
+        for (AtomicLong count : unreleased.values())
+        {
+            total += count.get();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getUnreleasedMatsBySite()
+    {
+        Map<String, Long> bySite = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> e : unreleased.entrySet())
+        {
+            if (e.getValue().get() != 0)
+                bySite.put(e.getKey(), e.getValue().get());
+        }
+        return bySite;
+    }
+
+    @Override
+    public long getProcessBytes()
+    {
+        // resident set size on Linux
+        try
+        {
+            for (String line : Files.readAllLines(PROC_STATUS))
+            {
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            ;
+        }
+
+        // elsewhere the committed memory, which on Windows is the private bytes of the process
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getCommittedVirtualMemorySize();
+        return -1;
+    }
+
+    @Override
+    public long getProcessNativeBytes()
+    {
+        long processBytes = getProcessBytes();
+        if (processBytes < 0)
+            return -1;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return processBytes - memory.getHeapMemoryUsage().getCommitted()
+                - memory.getNonHeapMemoryUsage().getCommitted();
+    }
+}
@@ -0,0 +1,54 @@
+package sample;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the native memory held by pipeline-owned OpenCV Mats, and the
+ * memory of the whole process.
+ * Registered on the platform MBean server alongside the JVM's own memory metrics.
+ */
+public interface NativeMemoryMXBean
+{
+    /**
+     * @return Native bytes held by all live tracked Mats.
+     */
+    long getLiveBytes();
+
+    /**
+     * @return Number of live tracked Mats.
+     */
+    int getLiveMats();
+
+    /**
+     * @return Highest value of live bytes seen when sampled.
+     */
+    long getPeakBytes();
+
+    /**
+     * @return Live native bytes keyed by allocation site.
+     */
+    Map<String, Long> getLiveBytesBySite();
+
+    /**
+     * @return Tracked Mats allocated and not released, including ones garbage collected since.
+     */
+    long getUnreleasedMats();
+
+    /**
+     * @return Unreleased Mats keyed by allocation site, for sites with any.
+     */
+    Map<String, Long> getUnreleasedMatsBySite();
+
+    /**
+     * @return Resident memory of the process in bytes, or its committed memory where the resident
+     *         size is not available, or -1 if neither is.
+     */
+    long getProcessBytes();
+
+    /**
+     * @return Process bytes less the heap and non-heap memory the JVM has committed, so that heap and
+     *         metaspace growing to their working size is not mistaken for a native leak, or -1 if
+     *         the process bytes are not available.
+     */
+    long getProcessNativeBytes();
+}
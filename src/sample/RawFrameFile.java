@@ -0,0 +1,303 @@
+package sample;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped file of raw frames, used to record exactly what the camera produced and replay it
+ * later.
+ *
+ * Layout, all values little endian:
+ *   header            4096 bytes: magic, version, width, height, OpenCV type, frame bytes, frame stride,
+ *                     capacity, frame count, start time (ms since epoch)
+ *   timestamp table   capacity longs of System.nanoTime() at capture, padded to a page
+ *   frames            capacity frames, each starting on a page boundary
+ *
+ * Frames are accessed as Mats whose data is the mapped file itself, so copying a camera frame into
+ * the file, or handing a recorded frame to the pipeline, does not go through the Java heap. The frame
+ * area is mapped in segments so that long recordings fit in a 32 bit address space. While recording,
+ * the file grows by a segment at a time as frames are appended, so the capacity is only an upper limit
+ * and costs no disk space until it is used.
+ */
+public class RawFrameFile
+{
+    private static final long MAGIC = 0x3130574152425945L; // "EYBRAW01"
+    private static final int VERSION = 1;
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int HEADER_SIZE = PAGE_SIZE;
+    private static final long SEGMENT_BYTES = 256L * 1024 * 1024;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int WIDTH_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int TYPE_OFFSET = 20;
+    private static final int FRAME_BYTES_OFFSET = 24;
+    private static final int FRAME_STRIDE_OFFSET = 28;
+    private static final int CAPACITY_OFFSET = 32;
+    private static final int FRAME_COUNT_OFFSET = 40;
+    private static final int START_MILLIS_OFFSET = 48;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+
+    private final MappedByteBuffer header;
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int frameBytes;
+    private final int frameStride;
+    private final int capacity;
+    private final long framesOffset;
+
+    // frames that may be mapped: the capacity while recording, the recorded frames on replay, so that
+    // nothing past the end of the file is ever mapped
+    private final int mappableFrames;
+    private final int framesPerSegment;
+
+    // the current and previous segment stay mapped, so a Mat handed out before a segment change
+    // still points at mapped memory while the caller finishes with it
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private MappedByteBuffer previousSegment;
+
+    /**
+     * Create a new file. Only the header and timestamp table are allocated up front.
+     * @param fileName Path of the file to create, replaced if it exists.
+     * @param width Frame width.
+     * @param height Frame height.
+     * @param type OpenCV type of the frames.
+     * @param capacity Most frames the file can hold.
+     * @return The file, open for recording.
+     * @throws IOException If the file could not be created.
+     */
+    public static RawFrameFile create(String fileName, int width, int height, int type, int capacity)
+            throws IOException
+    {
+        int frameBytes = width * height * CvType.ELEM_SIZE(type);
+        int frameStride = roundUpToPage(frameBytes);
+        long framesOffset = HEADER_SIZE + roundUpToPage(8L * capacity);
+
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        file.setLength(0);
+        file.setLength(framesOffset);
+
+        MappedByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, framesOffset);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(WIDTH_OFFSET, width);
+        header.putInt(HEIGHT_OFFSET, height);
+        header.putInt(TYPE_OFFSET, type);
+        header.putInt(FRAME_BYTES_OFFSET, frameBytes);
+        header.putInt(FRAME_STRIDE_OFFSET, frameStride);
+        header.putLong(CAPACITY_OFFSET, capacity);
+        header.putLong(FRAME_COUNT_OFFSET, 0);
+        header.putLong(START_MILLIS_OFFSET, System.currentTimeMillis());
+
+        return new RawFrameFile(file, header, FileChannel.MapMode.READ_WRITE, capacity);
+    }
+
+    /**
+     * Open an existing file for replay. Frames are mapped copy-on-write, so the pipeline can draw on
+     * them without changing the recording.
+     * @param fileName Path of the file.
+     * @return The file, open for replay.
+     * @throws IOException If the file could not be read, is not a raw frame file, or is shorter than
+     *                     its header says, e.g. a recording cut off by a crash. Nothing past the end
+     *                     of the file is mapped, since touching it would crash the JVM.
+     */
+    public static RawFrameFile open(String fileName) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        try
+        {
+            long length = file.length();
+            if (length < HEADER_SIZE)
+                throw new IOException(fileName + " is not a raw frame file");
+
+            MappedByteBuffer first = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            first.order(ByteOrder.LITTLE_ENDIAN);
+            if (first.getLong(MAGIC_OFFSET) != MAGIC || first.getInt(VERSION_OFFSET) != VERSION)
+                throw new IOException(fileName + " is not a raw frame file");
+
+            long capacity = first.getLong(CAPACITY_OFFSET);
+            long frameCount = first.getLong(FRAME_COUNT_OFFSET);
+            int width = first.getInt(WIDTH_OFFSET);
+            int height = first.getInt(HEIGHT_OFFSET);
+            int frameBytes = first.getInt(FRAME_BYTES_OFFSET);
+            int frameStride = first.getInt(FRAME_STRIDE_OFFSET);
+            if (capacity < 0 || capacity > Integer.MAX_VALUE || frameCount < 0 || frameCount > capacity
+                    || width <= 0 || height <= 0 || frameBytes <= 0 || frameStride < frameBytes
+                    || (long) width * height * CvType.ELEM_SIZE(first.getInt(TYPE_OFFSET)) != frameBytes)
+                throw new IOException(fileName + " has a corrupt header");
+
+            long framesOffset = HEADER_SIZE + roundUpToPage(8L * capacity);
+            long required = framesOffset + frameCount * frameStride;
+            if (length < required)
+                throw new IOException(fileName + " is truncated: " + length + " bytes, " + frameCount
+                        + " frames need " + required);
+
+            MappedByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, framesOffset);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            return new RawFrameFile(file, header, FileChannel.MapMode.PRIVATE, (int) frameCount);
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    private RawFrameFile(RandomAccessFile file, MappedByteBuffer header, FileChannel.MapMode mode,
+            int mappableFrames)
+    {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.mode = mode;
+        this.header = header;
+        width = header.getInt(WIDTH_OFFSET);
+        height = header.getInt(HEIGHT_OFFSET);
+        type = header.getInt(TYPE_OFFSET);
+        frameBytes = header.getInt(FRAME_BYTES_OFFSET);
+        frameStride = header.getInt(FRAME_STRIDE_OFFSET);
+        capacity = (int) header.getLong(CAPACITY_OFFSET);
+        framesOffset = HEADER_SIZE + roundUpToPage(8L * capacity);
+        framesPerSegment = (int) Math.max(1, SEGMENT_BYTES / frameStride);
+        this.mappableFrames = mappableFrames;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getFrameCount()
+    {
+        return (int) header.getLong(FRAME_COUNT_OFFSET);
+    }
+
+    public long getTimestamp(int index)
+    {
+        return header.getLong(HEADER_SIZE + 8 * index);
+    }
+
+    /**
+     * Append a frame. The frame is copied by OpenCV straight into the mapped file.
+     * @param frame The frame, which must match the file's size and type.
+     * @param timestamp System.nanoTime() when the frame was captured.
+     * @return False if the file is full or the frame does not match.
+     */
+    public boolean append(Mat frame, long timestamp)
+    {
+        int index = getFrameCount();
+        if (index >= capacity || frame.cols() != width || frame.rows() != height || frame.type() != type)
+            return false;
+
+        Mat slot = frameMat(index);
+        frame.copyTo(slot);
+        slot.release();
+
+        header.putLong(HEADER_SIZE + 8 * index, timestamp);
+        header.putLong(FRAME_COUNT_OFFSET, index + 1);
+        return true;
+    }
+
+    /**
+     * Get a Mat whose data is the given frame in the mapped file. Releasing the Mat does not affect
+     * the file. The Mat is valid until the file is closed, or until two further segment changes.
+     * @param index The frame index, below the capacity when recording or the frame count on replay.
+     * @return A Mat header over the mapped frame.
+     */
+    public Mat frameMat(int index)
+    {
+        if (index < 0 || index >= mappableFrames)
+            throw new IndexOutOfBoundsException("frame " + index + " of " + mappableFrames);
+
+        int segmentFor = index / framesPerSegment;
+        if (segmentFor != segmentIndex)
+            mapSegment(segmentFor);
+
+        int offset = (index % framesPerSegment) * frameStride;
+        ByteBuffer data = segment.duplicate();
+        data.position(offset);
+        data.limit(offset + frameBytes);
+        return new Mat(height, width, type, data.slice());
+    }
+
+    /**
+     * Flush the header and frames to disk and close the file.
+     */
+    public void close()
+    {
+        if (mode == FileChannel.MapMode.READ_WRITE)
+        {
+            header.force();
+            if (segment != null)
+                segment.force();
+        }
+        segment = null;
+        previousSegment = null;
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not close raw frame file: " + e.getMessage());
+        }
+    }
+
+    private void mapSegment(int index)
+    {
+        long start = framesOffset + (long) index * framesPerSegment * frameStride;
+        // while recording, mapping past the end grows the file by this segment
+        long frames = Math.min(framesPerSegment, mappableFrames - (long) index * framesPerSegment);
+        try
+        {
+            if (segment != null && mode == FileChannel.MapMode.READ_WRITE)
+                segment.force();
+            previousSegment = segment;
+            segment = channel.map(mode, start, frames * frameStride);
+            segmentIndex = index;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not map raw frame segment " + index, e);
+        }
+    }
+
+    private static int roundUpToPage(int bytes)
+    {
+        return (bytes + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private static long roundUpToPage(long bytes)
+    {
+        return (bytes + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+}
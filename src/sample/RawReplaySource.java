@@ -0,0 +1,78 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+
+/**
+ * Replays a raw frame recording. Frames are handed out as Mats over the mapped file, without copying.
+ */
+public class RawReplaySource implements FrameSource
+{
+    private final RawFrameFile file;
+    private final boolean realTime;
+    private final boolean loop;
+
+    private int nextIndex = 0;
+    private long replayStart = 0;
+
+    /**
+     * @param fileName Path of the recording.
+     * @param realTime If true, frames are returned at the timing they were recorded with, otherwise
+     *                 each read returns the next frame as fast as it is asked for.
+     * @param loop If true, replay starts again from the first frame after the last.
+     * @throws IOException If the recording could not be opened.
+     */
+    public RawReplaySource(String fileName, boolean realTime, boolean loop) throws IOException
+    {
+        this.file = RawFrameFile.open(fileName);
+        this.realTime = realTime;
+        this.loop = loop;
+        System.out.println("Replaying " + file.getFrameCount() + " frames of " + file.getWidth() + "x"
+                + file.getHeight() + " from " + fileName);
+    }
+
+    /**
+     * Read the next frame. In real time mode this is the latest frame due by now, skipping any that
+     * were missed, or null if no new frame is due yet.
+     * @return The frame, or null if there is none.
+     */
+    @Override
+    public Mat read()
+    {
+        int count = file.getFrameCount();
+        if (count == 0)
+            return null;
+
+        if (nextIndex >= count)
+        {
+            if (!loop)
+                return null;
+            nextIndex = 0;
+            replayStart = 0;
+        }
+
+        int index = nextIndex;
+        if (realTime)
+        {
+            long now = System.nanoTime();
+            if (replayStart == 0)
+                replayStart = now - file.getTimestamp(nextIndex) + file.getTimestamp(0);
+
+            long due = replayStart + file.getTimestamp(index) - file.getTimestamp(0);
+            if (due > now)
+                return null;
+            while (index + 1 < count && replayStart + file.getTimestamp(index + 1) - file.getTimestamp(0) <= now)
+                index++;
+        }
+
+        nextIndex = index + 1;
+        return file.frameMat(index);
+    }
+
+    @Override
+    public void close()
+    {
+        file.close();
+    }
+}
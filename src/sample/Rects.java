@@ -0,0 +1,29 @@
+package sample;
+
+import org.opencv.core.Rect;
+
+/**
+ * Geometry on detection rects, shared by the detectors, the detection lane and the measuring tools.
+ */
+public class Rects
+{
+    private Rects()
+    {
+    }
+
+    /**
+     * Intersection over union of two rects, 0 if they do not overlap and 1 if they are the same.
+     * @param a The first rect.
+     * @param b The second rect.
+     * @return The area of the intersection divided by the area of the union.
+     */
+    static double intersectionOverUnion(Rect a, Rect b)
+    {
+        int w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (w <= 0 || h <= 0)
+            return 0;
+        double intersection = (double) w * h;
+        return intersection / ((double) a.width * a.height + (double) b.width * b.height - intersection);
+    }
+}
@@ -0,0 +1,441 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs detection in separate DetectionWorker processes, so that a crash or stall inside OpenCV does
+ * not take down the app, and so that detection can use more than one JVM.
+ *
+ * Frames are passed through a SharedFrameRing, with one slot per worker since a worker has at most one
+ * request outstanding, and requests and results over a loopback socket per worker. Submitting a frame
+ * never waits: it goes to any idle worker, or is dropped if every worker is busy, so successive frames
+ * are detected in parallel. A reader thread per worker collects its results, and poll returns the
+ * newest one. A supervisor thread starts the workers and pings idle ones, and any worker that has
+ * died, stopped answering or broken the protocol is killed and restarted while the others carry on.
+ *
+ * Each start of a worker gets a new Connection, and the idle queue holds connections rather than
+ * workers, so a thread that took a connection from the queue is its only user until it goes back, and
+ * a failure reported against an old connection cannot affect its replacement.
+ */
+public class RemoteDetector implements FrameDetector
+{
+    // largest frame the ring can carry, a 4K grayscale frame
+    private static final int SLOT_BYTES = 3840 * 2160;
+
+    // a worker that takes longer than this to answer is restarted (ms)
+    private static final int DETECTION_TIMEOUT = 2000;
+
+    // time allowed for a new worker process to start and connect (ms)
+    private static final int CONNECT_TIMEOUT = 30000;
+
+    // idle workers are pinged this often, and reader threads check for stalls this often (ms)
+    private static final int HEALTH_INTERVAL = 1000;
+
+    /**
+     * A worker slot, restarted with a new connection whenever its process fails.
+     */
+    private static class Worker
+    {
+        final int id;
+
+        // the running process and its connection, null while (re)starting
+        volatile Connection connection;
+
+        Worker(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    /**
+     * One start of a worker process and its socket.
+     */
+    private static class Connection
+    {
+        final Worker worker;
+        final Process process;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        volatile int seq = 0;
+        volatile long lastResponse;
+
+        // the request awaiting an answer, 0 if none, and when it was sent (ms)
+        volatile byte outstanding = 0;
+        volatile long requestSent = 0;
+
+        Connection(Worker worker, Process process, Socket socket) throws IOException
+        {
+            this.worker = worker;
+            this.process = process;
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            lastResponse = System.currentTimeMillis();
+        }
+
+        void kill()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                ;
+            }
+            process.destroyForcibly();
+        }
+    }
+
+    private final SharedFrameRing ring;
+    private final ServerSocket server;
+    private final Worker[] workers;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Worker> restart = new LinkedBlockingQueue<>();
+    private final AtomicReference<Detections> newest = new AtomicReference<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Start the worker processes.
+     * @param count Number of workers.
+     * @throws IOException If the frame ring or socket could not be created.
+     */
+    public RemoteDetector(int count) throws IOException
+    {
+        ring = SharedFrameRing.create(count, SLOT_BYTES);
+        server = new ServerSocket(0, count, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(CONNECT_TIMEOUT);
+
+        workers = new Worker[count];
+        for (int i = 0; i < count; i++)
+        {
+            workers[i] = new Worker(i);
+            restart.add(workers[i]);
+        }
+
+        Thread supervisor = new Thread(this::supervise, "detection-worker-supervisor");
+        supervisor.setDaemon(true);
+        supervisor.start();
+    }
+
+    /**
+     * Submit a frame and return without waiting for its result.
+     * @return The newest result that has arrived since the last call or poll, usually from an earlier
+     *         frame, or null if there is none.
+     */
+    @Override
+    public Detections detect(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths)
+    {
+        submit(grayFrame, timestamp, tiled, detectMouths);
+        return poll();
+    }
+
+    @Override
+    public Detections poll()
+    {
+        return newest.getAndSet(null);
+    }
+
+    /**
+     * Send a frame to an idle worker. The frame is copied, and the result is collected by poll.
+     * @param grayFrame The equalised grayscale frame.
+     * @param timestamp System.nanoTime() when the frame was captured.
+     * @param tiled True to use tiled face detection.
+     * @param detectMouths True to also detect mouths.
+     * @return False if the frame was dropped because every worker is busy or restarting, or it is too
+     *         large for the ring.
+     */
+    public boolean submit(Mat grayFrame, long timestamp, boolean tiled, boolean detectMouths)
+    {
+        if (grayFrame.total() * grayFrame.elemSize() > ring.getSlotBytes())
+            return false;
+
+        Connection c = idle.poll();
+        if (c == null)
+            return false;
+
+        try
+        {
+            Mat slotMat = ring.slotMat(c.worker.id, grayFrame.rows(), grayFrame.cols(), grayFrame.type());
+            grayFrame.copyTo(slotMat);
+            slotMat.release();
+
+            int seq = send(c, DetectionWorker.REQUEST_DETECT);
+            c.out.writeInt(seq);
+            c.out.writeInt(c.worker.id);
+            c.out.writeInt(grayFrame.rows());
+            c.out.writeInt(grayFrame.cols());
+            c.out.writeInt(grayFrame.type());
+            c.out.writeBoolean(tiled);
+            c.out.writeBoolean(detectMouths);
+            c.out.writeLong(timestamp);
+            c.out.flush();
+            return true;
+        }
+        catch (IOException e)
+        {
+            fail(c, e);
+            return false;
+        }
+    }
+
+    /**
+     * Wait until every worker has started and is idle.
+     * @param timeout Longest time to wait (ms).
+     * @return True if every worker is idle, false if the wait timed out.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitWorkers(long timeout) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+        while (idle.size() < workers.length)
+        {
+            if (System.currentTimeMillis() >= end)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            for (Worker w : workers)
+            {
+                Connection c = w.connection;
+                w.connection = null;
+                if (c != null)
+                    c.kill();
+            }
+        }
+        try
+        {
+            server.close();
+        }
+        catch (IOException e)
+        {
+            ;
+        }
+        ring.close();
+    }
+
+    /**
+     * Mark a request as outstanding and write its type. The caller writes the seq and the rest.
+     * @return The seq of the request.
+     */
+    private int send(Connection c, byte request) throws IOException
+    {
+        int seq = c.seq + 1;
+        c.seq = seq;
+        c.requestSent = System.currentTimeMillis();
+        c.outstanding = request;
+        c.out.writeByte(request);
+        return seq;
+    }
+
+    /**
+     * Read responses on a connection until it fails or is replaced, publishing detect results and
+     * returning the connection to the idle queue after each response.
+     */
+    private void read(Connection c)
+    {
+        try
+        {
+            while (!closed && c.worker.connection == c)
+            {
+                int seq;
+                try
+                {
+                    seq = c.in.readInt();
+                }
+                catch (SocketTimeoutException e)
+                {
+                    if (c.outstanding != 0 && System.currentTimeMillis() - c.requestSent > DETECTION_TIMEOUT)
+                        throw new IOException("no response in " + DETECTION_TIMEOUT + " ms");
+                    continue;
+                }
+
+                if (seq != c.seq || c.outstanding == 0)
+                    throw new IOException("response out of sequence");
+                Detections detections = DetectionWorker.readDetections(c.in);
+                c.lastResponse = System.currentTimeMillis();
+
+                // results from parallel workers can arrive out of order, keep the newest frame's
+                if (c.outstanding == DetectionWorker.REQUEST_DETECT)
+                    newest.accumulateAndGet(detections,
+                            (old, d) -> old == null || d.timestamp > old.timestamp ? d : old);
+
+                c.outstanding = 0;
+                if (c.worker.connection == c)
+                    idle.add(c);
+            }
+        }
+        catch (IOException e)
+        {
+            fail(c, e);
+        }
+    }
+
+    /**
+     * Kill a connection and queue its worker for restart. Only the first failure reported against a
+     * connection has any effect, and none does once the connection has been replaced or closed.
+     * @param c The connection that failed.
+     * @param e What went wrong.
+     */
+    private synchronized void fail(Connection c, Exception e)
+    {
+        if (closed || c.worker.connection != c)
+            return;
+        c.worker.connection = null;
+        idle.remove(c);
+        c.kill();
+        System.out.println("Detection worker " + c.worker.id + " failed (" + e + "), restarting");
+        restart.add(c.worker);
+    }
+
+    /**
+     * Start workers waiting to be (re)started, and health check idle workers.
+     */
+    private void supervise()
+    {
+        while (!closed)
+        {
+            try
+            {
+                Worker worker = restart.poll(HEALTH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (worker != null)
+                {
+                    launch(worker);
+                    continue;
+                }
+                checkIdle();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                // keep supervising, or no worker would ever be restarted again
+                System.out.println("Detection worker supervisor error: " + e);
+            }
+        }
+    }
+
+    /**
+     * Ping each idle connection that has been quiet for a while, taking it out of the idle queue until
+     * its reader thread has the answer.
+     */
+    private void checkIdle()
+    {
+        long now = System.currentTimeMillis();
+        for (Worker w : workers)
+        {
+            Connection c = w.connection;
+            if (c == null || now - c.lastResponse < HEALTH_INTERVAL || !idle.remove(c))
+                continue;
+
+            try
+            {
+                if (!c.process.isAlive())
+                    throw new IOException("exited with " + c.process.exitValue());
+                int seq = send(c, DetectionWorker.REQUEST_PING);
+                c.out.writeInt(seq);
+                c.out.flush();
+            }
+            catch (IOException e)
+            {
+                fail(c, e);
+            }
+        }
+    }
+
+    /**
+     * Start a worker process and wait for it to connect.
+     */
+    private void launch(Worker worker) throws InterruptedException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                "-Djava.library.path=" + System.getProperty("java.library.path"),
+                DetectionWorker.class.getName(),
+                ring.getFileName(),
+                Integer.toString(ring.getSlots()),
+                Integer.toString(ring.getSlotBytes()),
+                Integer.toString(server.getLocalPort()),
+                Integer.toString(worker.id));
+        builder.inheritIO();
+
+        Process process = null;
+        Socket socket = null;
+        try
+        {
+            process = builder.start();
+            socket = server.accept();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HEALTH_INTERVAL);
+            Connection c = new Connection(worker, process, socket);
+
+            int id = c.in.readInt();
+            if (id != worker.id)
+                throw new IOException("connection from worker " + id + " instead of " + worker.id);
+
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    c.kill();
+                    return;
+                }
+                worker.connection = c;
+            }
+            System.out.println("Detection worker " + worker.id + " started");
+
+            Thread reader = new Thread(() -> read(c), "detection-worker-" + worker.id);
+            reader.setDaemon(true);
+            reader.start();
+            idle.add(c);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not start detection worker " + worker.id + ": " + e);
+            try
+            {
+                if (socket != null)
+                    socket.close();
+            }
+            catch (IOException ce)
+            {
+                ;
+            }
+            if (process != null)
+                process.destroyForcibly();
+            if (!closed)
+            {
+                Thread.sleep(HEALTH_INTERVAL);
+                restart.add(worker);
+            }
+        }
+    }
+}
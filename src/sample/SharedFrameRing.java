@@ -0,0 +1,153 @@
+package sample;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A ring of fixed size frame slots in a memory-mapped file, shared between the app and its detection
+ * worker processes. Both sides map the file read/write, so a frame copied into a slot by the app is
+ * visible to a worker without further copying. Each worker has its own slot, whose index is sent over
+ * the worker's socket with each request, see RemoteDetector.
+ *
+ * The app's ring files have fixed names in the temp directory and are reused from one run to the next,
+ * since a mapped file cannot be deleted on Windows and would otherwise be left behind by every run.
+ * Each ring file has a lock file, locked for as long as the ring is open, so that two instances of the
+ * app running at once use different ring files.
+ */
+public class SharedFrameRing
+{
+    // ring files are tried in turn up to this many, for this many instances of the app at once
+    private static final int MAX_RING_FILES = 16;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final RandomAccessFile lockFile;
+    private final MappedByteBuffer buffer;
+    private final int slotBytes;
+    private final int slots;
+
+    /**
+     * Create the ring, reusing the first ring file not in use by another instance of the app.
+     * @param slots Number of slots.
+     * @param slotBytes Size of each slot, the largest frame the ring can carry.
+     * @return The ring.
+     * @throws IOException If no ring file could be claimed or created.
+     */
+    public static SharedFrameRing create(int slots, int slotBytes) throws IOException
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        for (int i = 0; i < MAX_RING_FILES; i++)
+        {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "eyeblow-frames-" + i + ".lock"), "rw");
+            FileLock lock;
+            try
+            {
+                lock = lockFile.getChannel().tryLock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                // held by another ring in this JVM
+                lock = null;
+            }
+            if (lock == null)
+            {
+                lockFile.close();
+                continue;
+            }
+
+            try
+            {
+                return new SharedFrameRing(new File(dir, "eyeblow-frames-" + i + ".ring"), slots, slotBytes, lockFile);
+            }
+            catch (IOException e)
+            {
+                lockFile.close();
+                throw e;
+            }
+        }
+        throw new IOException("all " + MAX_RING_FILES + " frame ring files in " + dir + " are in use");
+    }
+
+    /**
+     * Open a ring file created by another process.
+     * @param fileName Path of the ring file.
+     * @param slots Number of slots.
+     * @param slotBytes Size of each slot.
+     * @return The ring.
+     * @throws IOException If the file could not be opened.
+     */
+    public static SharedFrameRing open(String fileName, int slots, int slotBytes) throws IOException
+    {
+        return new SharedFrameRing(new File(fileName), slots, slotBytes, null);
+    }
+
+    /**
+     * @param lockFile The locked lock file of a ring created by the app, closed with the ring, or null
+     *                 for a ring opened by a worker.
+     */
+    private SharedFrameRing(File file, int slots, int slotBytes, RandomAccessFile lockFile) throws IOException
+    {
+        this.file = file;
+        this.lockFile = lockFile;
+        this.slots = slots;
+        this.slotBytes = slotBytes;
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < (long) slots * slotBytes)
+            raf.setLength((long) slots * slotBytes);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * slotBytes);
+    }
+
+    public String getFileName()
+    {
+        return file.getPath();
+    }
+
+    public int getSlots()
+    {
+        return slots;
+    }
+
+    public int getSlotBytes()
+    {
+        return slotBytes;
+    }
+
+    /**
+     * Get a Mat whose data is a slot in the ring.
+     * @param slot The slot index.
+     * @param rows Rows of the frame.
+     * @param cols Columns of the frame.
+     * @param type OpenCV type of the frame, which must fit in a slot.
+     * @return A Mat header over the slot; releasing it does not affect the ring.
+     */
+    public Mat slotMat(int slot, int rows, int cols, int type)
+    {
+        ByteBuffer data = buffer.duplicate();
+        data.position(slot * slotBytes);
+        data.limit(slot * slotBytes + slotBytes);
+        return new Mat(rows, cols, type, data.slice());
+    }
+
+    public void close()
+    {
+        try
+        {
+            raf.close();
+            // closing the lock file releases its lock, so the ring file can be reused
+            if (lockFile != null)
+                lockFile.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not close frame ring: " + e.getMessage());
+        }
+    }
+}
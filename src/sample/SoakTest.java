@@ -0,0 +1,18 @@
+package sample;
+
+/**
+ * Entry point of the headless soak test, which runs the detection pipeline for hours without a display
+ * and fails if native memory grows, see Main.runSoak.
+ *
+ * Usage: SoakTest [soakhours=h] [soaksource=file] [other Main arguments]
+ *
+ * This is a separate class because the java launcher starts the JavaFX toolkit, which needs a display,
+ * before main runs whenever the main class extends Application.
+ */
+public class SoakTest
+{
+    public static void main(String[] args)
+    {
+        System.exit(Main.soak(args));
+    }
+}
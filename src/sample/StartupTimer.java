@@ -0,0 +1,99 @@
+package sample;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how long each phase of startup takes, from JVM start to the first displayed frame and on
+ * to a steady frame cost, and prints a report once the frame cost is steady.
+ *
+ * The frame cost is the time the pipeline itself spends on a frame. The interval between frames is
+ * no use for this, since the timer fixes it unless a frame overruns.
+ */
+public class StartupTimer
+{
+    // the frame cost is steady once this many consecutive frame costs are all within the tolerance
+    // of their mean, or within the minimum spread for very cheap frames
+    private static final int STEADY_FRAMES = 10;
+    private static final double STEADY_TOLERANCE = 0.25;
+    private static final long STEADY_MIN_SPREAD = 1_000_000L;
+
+    private static final List<String> phases = new ArrayList<>();
+    private static final List<Long> times = new ArrayList<>();
+
+    private static final long[] costs = new long[STEADY_FRAMES];
+    private static int frames = 0;
+    private static boolean reported = false;
+
+    /**
+     * Record the end of a startup phase.
+     * @param phase Name of the phase that has just finished.
+     */
+    public static synchronized void mark(String phase)
+    {
+        phases.add(phase);
+        times.add(uptime());
+    }
+
+    /**
+     * Record that a frame has been displayed. The first call marks time-to-first-frame, and the
+     * report is printed when the frame cost becomes steady.
+     * @param cost Time the pipeline spent on the frame (ns).
+     * @return True if this frame completed startup and the report was printed.
+     */
+    public static synchronized boolean frameDisplayed(long cost)
+    {
+        if (reported)
+            return false;
+
+        if (frames == 0)
+            mark("first frame");
+        costs[frames++ % STEADY_FRAMES] = cost;
+
+        if (frames >= STEADY_FRAMES && isSteady())
+        {
+            mark("steady frame cost");
+            report();
+            reported = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Print each phase with the time it ended and how long it took.
+     */
+    public static synchronized void report()
+    {
+        System.out.println("Startup timing (ms since JVM start)");
+        long previous = 0;
+        for (int i = 0; i < phases.size(); i++)
+        {
+            long time = times.get(i);
+            System.out.println(String.format("  %-30s %7d %+7d", phases.get(i), time, time - previous));
+            previous = time;
+        }
+    }
+
+    private static boolean isSteady()
+    {
+        double mean = 0;
+        for (long cost : costs)
+            mean += cost;
+        mean /= costs.length;
+
+        double spread = Math.max(mean * STEADY_TOLERANCE, STEADY_MIN_SPREAD);
+        for (long cost : costs)
+        {
+            if (Math.abs(cost - mean) > spread)
+                return false;
+        }
+        return true;
+    }
+
+    private static long uptime()
+    {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -0,0 +1,51 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Generates frames with a face-like pattern moving across a plain background, for running the
+ * pipeline without a camera.
+ */
+public class SyntheticSource implements FrameSource
+{
+    private static final Scalar BACKGROUND_COLOR = new Scalar(90, 90, 90);
+    private static final Scalar FACE_COLOR = new Scalar(150, 170, 200);
+    private static final Scalar EYE_COLOR = new Scalar(30, 30, 30);
+
+    private final int width;
+    private final int height;
+    private long frameCount = 0;
+
+    public SyntheticSource(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public Mat read()
+    {
+        Mat frame = new Mat(height, width, CvType.CV_8UC3, BACKGROUND_COLOR);
+
+        // move the face back and forth across the frame
+        double phase = (frameCount++ % 200) / 200.0 * 2 * Math.PI;
+        double faceWidth = width * 0.2;
+        double faceHeight = faceWidth * 1.3;
+        Point centre = new Point(width / 2.0 + Math.sin(phase) * width * 0.3, height / 2.0);
+
+        Imgproc.ellipse(frame, centre, new Size(faceWidth / 2, faceHeight / 2), 0, 0, 360,
+                FACE_COLOR, Imgproc.FILLED);
+        int eyeRadius = (int) Math.round(faceWidth * 0.08);
+        double eyeY = centre.y - faceHeight * 0.12;
+        Imgproc.circle(frame, new Point(centre.x - faceWidth * 0.2, eyeY), eyeRadius, EYE_COLOR, Imgproc.FILLED);
+        Imgproc.circle(frame, new Point(centre.x + faceWidth * 0.2, eyeY), eyeRadius, EYE_COLOR, Imgproc.FILLED);
+
+        return frame;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,162 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares tiled face detection against whole-frame detection, for each thread count from one up to
+ * the number of cores, and checks that both find the same faces. Whole-frame detection runs with
+ * OpenCV's own parallel loops set to that many threads, and tiled detection runs on a pool of that
+ * many threads with OpenCV set to one, so each row compares the two ways of using the same cores.
+ * Both speedups are against whole-frame detection on one thread.
+ *
+ * Usage: TiledDetectionBenchmark [image ...]
+ *
+ * Give real images with faces in them to check accuracy. With no images, synthetic 1080p and 4K frames
+ * are used, which measures cost only: they contain no faces, so the match columns are meaningless.
+ */
+public class TiledDetectionBenchmark
+{
+    // Load OpenCV native library
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    private static final int REPEATS = 10;
+
+    // a tiled detection matches a whole-frame detection if they overlap by at least this much
+    private static final double MATCH_IOU = 0.5;
+
+    public static void main(String[] args)
+    {
+        List<Mat> images = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (args.length == 0)
+        {
+            images.add(new SyntheticSource(1920, 1080).read());
+            names.add("synthetic 1920x1080");
+            images.add(new SyntheticSource(3840, 2160).read());
+            names.add("synthetic 3840x2160");
+            System.out.println("No images given, using synthetic frames: this measures cost only. "
+                    + "Give images with faces to check that tiled detection finds the same faces.");
+        }
+        for (String a : args)
+        {
+            Mat image = Imgcodecs.imread(a);
+            if (image.empty())
+            {
+                System.out.println("Could not read image " + a);
+                continue;
+            }
+            images.add(image);
+            names.add(a);
+        }
+
+        String cascadeFile = CascadeDetector.cascadeFile("haarcascades", "haarcascade_frontalface_alt.xml");
+        CascadeClassifier cascade = new CascadeClassifier();
+        cascade.load(cascadeFile);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < images.size(); i++)
+        {
+            Mat grayFrame = new Mat();
+            Imgproc.cvtColor(images.get(i), grayFrame, Imgproc.COLOR_BGR2GRAY);
+            Imgproc.equalizeHist(grayFrame, grayFrame);
+            int minFaceSize = Math.round(grayFrame.rows() * Main.FACE_MIN_SIZE_FRACTION);
+            Size minSize = new Size(minFaceSize, minFaceSize);
+
+            // whole frame on one core, the baseline every row is compared against
+            Core.setNumThreads(1);
+            MatOfRect faces = new MatOfRect();
+            double baseMs = timeWholeFrame(cascade, grayFrame, minSize, faces);
+            Rect[] wholeFaces = faces.toArray();
+            faces.release();
+
+            System.out.println();
+            System.out.println(names.get(i) + ": whole frame on one thread " + String.format("%.1f", baseMs)
+                    + " ms, " + wholeFaces.length + " faces");
+            if (wholeFaces.length == 0)
+                System.out.println("  no faces found by whole-frame detection, so this image does not test accuracy");
+            System.out.println(String.format("  %7s %9s %8s %9s %8s %8s %8s %8s", "threads", "whole ms", "speedup",
+                    "tiled ms", "speedup", "matched", "missed", "extra"));
+
+            for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : threads + 1)
+            {
+                // whole frame with OpenCV's own parallel loops on this many threads
+                Core.setNumThreads(threads);
+                MatOfRect ignored = new MatOfRect();
+                double wholeMs = timeWholeFrame(cascade, grayFrame, minSize, ignored);
+                ignored.release();
+
+                // tiled on a pool of this many threads, each detection running on one thread
+                Core.setNumThreads(1);
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                TiledDetector detector = new TiledDetector(cascadeFile, Main.FACE_SCALE_FACTOR,
+                        Main.FACE_MIN_NEIGHBORS, pool);
+
+                // warm up so every pool thread has loaded its classifier
+                Rect[] tiledFaces = detector.detect(grayFrame, minSize);
+                long start = System.nanoTime();
+                for (int r = 0; r < REPEATS; r++)
+                {
+                    tiledFaces = detector.detect(grayFrame, minSize);
+                }
+                double tiledMs = (System.nanoTime() - start) / 1e6 / REPEATS;
+                pool.shutdown();
+
+                int matched = countMatches(wholeFaces, tiledFaces);
+                System.out.println(String.format("  %7d %9.1f %7.2fx %9.1f %7.2fx %8d %8d %8d", threads, wholeMs,
+                        baseMs / wholeMs, tiledMs, baseMs / tiledMs, matched, wholeFaces.length - matched,
+                        tiledFaces.length - matched));
+            }
+            grayFrame.release();
+        }
+
+        for (Mat image : images)
+        {
+            image.release();
+        }
+    }
+
+    /**
+     * Time whole-frame detection as processFrame does it, on as many threads as OpenCV is set to use.
+     * @param faces Receives the detected faces.
+     * @return The mean time of one detection (ms).
+     */
+    private static double timeWholeFrame(CascadeClassifier cascade, Mat grayFrame, Size minSize, MatOfRect faces)
+    {
+        cascade.detectMultiScale(grayFrame, faces, Main.FACE_SCALE_FACTOR, Main.FACE_MIN_NEIGHBORS,
+                Objdetect.CASCADE_SCALE_IMAGE, minSize, new Size());
+        long start = System.nanoTime();
+        for (int r = 0; r < REPEATS; r++)
+        {
+            cascade.detectMultiScale(grayFrame, faces, Main.FACE_SCALE_FACTOR, Main.FACE_MIN_NEIGHBORS,
+                    Objdetect.CASCADE_SCALE_IMAGE, minSize, new Size());
+        }
+        return (System.nanoTime() - start) / 1e6 / REPEATS;
+    }
+
+    private static int countMatches(Rect[] expected, Rect[] actual)
+    {
+        boolean[] used = new boolean[actual.length];
+        int matches = 0;
+        for (Rect e : expected)
+        {
+            for (int j = 0; j < actual.length; j++)
+            {
+                if (!used[j] && Rects.intersectionOverUnion(e, actual[j]) >= MATCH_IOU)
+                {
+                    used[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,199 @@
+package sample;
+
+import org.opencv.core.*;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a cascade over overlapping tiles of a large detection image in parallel on a fork-join pool.
+ *
+ * The image is split into about one tile per pool thread. Neighbouring tiles overlap by a little more
+ * than the maximum face size handled by the tiles, so every detection window up to it fits completely
+ * inside at least one tile, and by no more, since the overlap is scanned twice. Keeping that size small
+ * keeps the overlap small: at 1080p or 4K on four threads the tiles cover about 1.4 times the image. Faces
+ * larger than that are found by one extra pass over the whole image, which is cheap because the
+ * cascade then only scans the small end of the image pyramid. The size ranges of the two passes
+ * overlap by a few scale steps, so a face near the boundary has all its neighbour windows inside at
+ * least one pass rather than split between them. Detections found twice, where tiles overlap or by
+ * both passes, are merged with non-maximum suppression.
+ *
+ * The results are close to one detectMultiScale call over the whole image but not guaranteed to be
+ * the same, since neighbours are grouped per tile; TiledDetectionBenchmark measures the difference.
+ */
+public class TiledDetector
+{
+    // boundary between the face sizes handled by the tiles and by the whole-image pass, as a fraction
+    // of the image height
+    private static final double MAX_TILE_FACE_FRACTION = 0.15;
+
+    // each pass extends this many scale factor steps past the boundary into the other's size range
+    private static final int SIZE_OVERLAP_STEPS = 2;
+
+    // tiles overlap by this multiple of the largest tile face size, leaving room for neighbour windows
+    private static final double TILE_OVERLAP = 1.25;
+
+    // detections overlapping by more than this intersection over union are treated as the same face
+    private static final double NMS_THRESHOLD = 0.4;
+
+    private final ForkJoinPool pool;
+    private final double scaleFactor;
+    private final int minNeighbors;
+
+    // CascadeClassifier is not safe to share between threads, so each pool thread loads its own
+    private final ThreadLocal<CascadeClassifier> cascade;
+
+    /**
+     * @param cascadeFile Path of the cascade to load.
+     * @param scaleFactor Scale factor passed to detectMultiScale.
+     * @param minNeighbors Minimum neighbours passed to detectMultiScale.
+     * @param pool The pool to run tiles on.
+     */
+    public TiledDetector(String cascadeFile, double scaleFactor, int minNeighbors, ForkJoinPool pool)
+    {
+        this.pool = pool;
+        this.scaleFactor = scaleFactor;
+        this.minNeighbors = minNeighbors;
+        this.cascade = ThreadLocal.withInitial(() -> {
+            CascadeClassifier c = new CascadeClassifier();
+            c.load(cascadeFile);
+            return c;
+        });
+    }
+
+    /**
+     * Detect faces in an image.
+     * @param grayFrame The equalised grayscale detection image.
+     * @param minSize The minimum face size.
+     * @return The detected faces, largest first.
+     */
+    public Rect[] detect(Mat grayFrame, Size minSize)
+    {
+        int maxTileFace = (int) Math.round(grayFrame.rows() * MAX_TILE_FACE_FRACTION);
+        if (maxTileFace <= minSize.height)
+            return detectRegion(grayFrame, new Rect(0, 0, grayFrame.cols(), grayFrame.rows()), minSize, new Size());
+
+        double sizeOverlap = Math.pow(scaleFactor, SIZE_OVERLAP_STEPS);
+        int tileFace = (int) Math.ceil(maxTileFace * sizeOverlap);
+        int wholeFace = (int) Math.max(minSize.height, Math.floor(maxTileFace / sizeOverlap));
+        Size maxTileSize = new Size(tileFace, tileFace);
+        Size minWholeSize = new Size(wholeFace, wholeFace);
+        int overlap = (int) Math.ceil(tileFace * TILE_OVERLAP);
+
+        // about one tile per thread, split between the axes in proportion to the image
+        int threads = pool.getParallelism();
+        int rows = (int) Math.max(1, Math.round(Math.sqrt((double) threads * grayFrame.rows() / grayFrame.cols())));
+        int cols = Math.max(1, (threads + rows - 1) / rows);
+        rows = Math.min(rows, maxTiles(grayFrame.rows(), overlap));
+        cols = Math.min(cols, maxTiles(grayFrame.cols(), overlap));
+
+        List<ForkJoinTask<Rect[]>> tasks = new ArrayList<>();
+        for (int[] y : tileSpans(grayFrame.rows(), rows, overlap))
+        {
+            for (int[] x : tileSpans(grayFrame.cols(), cols, overlap))
+            {
+                Rect tile = new Rect(x[0], y[0], x[1], y[1]);
+                tasks.add(pool.submit(() -> detectRegion(grayFrame, tile, minSize, maxTileSize)));
+            }
+        }
+
+        // faces too large for the tiles, over the whole image
+        Rect whole = new Rect(0, 0, grayFrame.cols(), grayFrame.rows());
+        tasks.add(pool.submit(() -> detectRegion(grayFrame, whole, minWholeSize, new Size())));
+
+        List<Rect> found = new ArrayList<>();
+        for (ForkJoinTask<Rect[]> task : tasks)
+        {
+            Collections.addAll(found, task.join());
+        }
+        return suppressDuplicates(found, NMS_THRESHOLD);
+    }
+
+    /**
+     * Run the cascade over one region of the image.
+     * @return Detections in whole image coordinates.
+     */
+    private Rect[] detectRegion(Mat grayFrame, Rect region, Size minSize, Size maxSize)
+    {
+        Mat tile = grayFrame.submat(region);
+        MatOfRect faces = NativeMemory.track("TiledDetector.faces", new MatOfRect());
+        cascade.get().detectMultiScale(tile, faces, scaleFactor, minNeighbors,
+                Objdetect.CASCADE_SCALE_IMAGE, minSize, maxSize);
+        Rect[] rects = faces.toArray();
+        NativeMemory.release(faces);
+        tile.release();
+
+        for (Rect r : rects)
+        {
+            r.x += region.x;
+            r.y += region.y;
+        }
+        return rects;
+    }
+
+    /**
+     * Most tiles along an axis before the overlap is more than the rest of each tile, past which extra
+     * tiles add more repeated work than they take off each thread.
+     */
+    private static int maxTiles(int length, int overlap)
+    {
+        return Math.max(1, length / (2 * overlap));
+    }
+
+    /**
+     * Split an axis into tiles of equal size where neighbouring tiles overlap by exactly overlap.
+     * @return The start and size of each tile.
+     */
+    private static List<int[]> tileSpans(int length, int count, int overlap)
+    {
+        List<int[]> spans = new ArrayList<>();
+        if (count <= 1 || length <= overlap)
+        {
+            spans.add(new int[] { 0, length });
+            return spans;
+        }
+        int span = length - overlap;
+        for (int i = 0; i < count; i++)
+        {
+            int start = (int) ((long) span * i / count);
+            int end = (int) ((long) span * (i + 1) / count) + overlap;
+            spans.add(new int[] { start, end - start });
+        }
+        return spans;
+    }
+
+    /**
+     * Greedy non-maximum suppression. Cascades give no confidence score, so larger rects are kept in
+     * preference to the smaller rects they overlap.
+     * @param rects The candidate rects.
+     * @param threshold Rects overlapping a kept rect by more than this intersection over union are dropped.
+     * @return The kept rects, largest first.
+     */
+    static Rect[] suppressDuplicates(List<Rect> rects, double threshold)
+    {
+        List<Rect> sorted = new ArrayList<>(rects);
+        sorted.sort((a, b) -> Double.compare(b.area(), a.area()));
+
+        List<Rect> kept = new ArrayList<>();
+        for (Rect candidate : sorted)
+        {
+            boolean duplicate = false;
+            for (Rect k : kept)
+            {
+                if (Rects.intersectionOverUnion(candidate, k) > threshold)
+                {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate)
+                kept.add(candidate);
+        }
+        return kept.toArray(new Rect[0]);
+    }
+}